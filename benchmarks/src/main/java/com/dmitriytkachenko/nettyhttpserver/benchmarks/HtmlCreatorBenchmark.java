@@ -0,0 +1,49 @@
+package com.dmitriytkachenko.nettyhttpserver.benchmarks;
+
+import com.dmitriytkachenko.nettyhttpserver.HtmlCreator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/* Rendering of a status-like page with a table of increasing size. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HtmlCreatorBenchmark {
+    @Param({"16", "1000", "100000"})
+    private int rows;
+
+    private final List<String> headers = Arrays.asList("IP", "Requests", "Date and time of last request");
+    private List<List<String>> table;
+    private final PooledByteBufAllocator allocator = new PooledByteBufAllocator(true);
+
+    @Setup
+    public void setUp() {
+        table = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            table.add(Arrays.asList("10.0." + (i >> 8 & 0xff) + "." + (i & 0xff), Integer.toString(i), "12:00:00.000 01.01.2015"));
+        }
+    }
+
+    @Benchmark
+    public int renderStatusTable() {
+        HtmlCreator htmlCreator = new HtmlCreator(allocator.directBuffer());
+        htmlCreator.setTitle("Statistics").setH1("Statistics");
+        htmlCreator.openParagraph().addBold("Total requests: ").addNumber(rows).closeParagraph();
+        htmlCreator.addTableWithHeaders(headers);
+        table.forEach(htmlCreator::addRowToTable);
+        htmlCreator.endTable();
+        ByteBuf html = htmlCreator.getHtml();
+        int length = html.readableBytes();
+        html.release();
+        return length;
+    }
+}
@@ -0,0 +1,64 @@
+package com.dmitriytkachenko.nettyhttpserver.benchmarks;
+
+import com.dmitriytkachenko.nettyhttpserver.HttpServerInitializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/* Full in-process request: bytes in, through the HttpServerInitializer pipeline, bytes out. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+    @Param({"true", "false"})
+    private boolean compression;
+
+    @Param({"/status", "/redirect?url=google.com", "/missing"})
+    private String uri;
+
+    private ByteBuf request;
+    private EmbeddedChannel channel;
+
+    @Setup
+    public void setUp() {
+        request = Unpooled.unreleasableBuffer(Unpooled.directBuffer().writeBytes(
+                ("GET " + uri + " HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n").getBytes(CharsetUtil.US_ASCII)));
+    }
+
+    /* All responses keep the connection alive, so invocations are requests of one kept-alive connection. */
+    @Setup
+    public void openChannel() {
+        channel = new EmbeddedChannel(new HttpServerInitializer(compression));
+    }
+
+    @TearDown
+    public void closeChannel() {
+        channel.finish();
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    @Benchmark
+    public int request() {
+        channel.writeInbound(request.duplicate());
+        int bytes = 0;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            if (msg instanceof ByteBuf) {
+                bytes += ((ByteBuf) msg).readableBytes();
+            }
+            ReferenceCountUtil.release(msg);
+        }
+        return bytes;
+    }
+}
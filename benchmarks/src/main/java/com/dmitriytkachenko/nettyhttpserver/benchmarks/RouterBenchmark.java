@@ -0,0 +1,46 @@
+package com.dmitriytkachenko.nettyhttpserver.benchmarks;
+
+import com.dmitriytkachenko.nettyhttpserver.Router;
+import io.netty.handler.codec.http.HttpMethod;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/* Matching of request URIs against the server's routes plus a number of additional endpoints. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouterBenchmark {
+    private static final Router.Route<Object> ROUTE = (target, ctx) -> { };
+    private static final Router.Route<Object> NOT_FOUND = (target, ctx) -> { };
+
+    @Param({"0", "100"})
+    private int extraRoutes;
+
+    @Param({"/hello", "/status/", "/redirect?url=google.com", "/missing/path"})
+    private String uri;
+
+    private Router<Object> router;
+
+    @Setup
+    public void setUp() {
+        Router.Builder<Object> builder = Router.builder()
+                .get("/hello", false, ROUTE)
+                .get("/status", false, ROUTE)
+                .get("/redirect", true, ROUTE)
+                .notFound(NOT_FOUND)
+                .notImplemented(NOT_FOUND);
+        for (int i = 0; i < extraRoutes; i++) {
+            builder.get("/api/v1/endpoint" + i, true, ROUTE);
+        }
+        router = builder.build();
+    }
+
+    @Benchmark
+    public Router.Route<Object> match() {
+        return router.match(HttpMethod.GET, uri);
+    }
+}
@@ -0,0 +1,77 @@
+package com.dmitriytkachenko.nettyhttpserver.benchmarks;
+
+import com.dmitriytkachenko.nettyhttpserver.HttpServerStatistics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* Request and redirect registration from 1, 4 and all available threads over a fixed set of keys. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatisticsBenchmark {
+    @Param({"16", "10000"})
+    private int distinctKeys;
+
+    private String[] ips;
+    private String[] urls;
+    private final HttpServerStatistics statistics = HttpServerStatistics.getInstance();
+
+    @Setup
+    public void setUp() {
+        ips = new String[distinctKeys];
+        urls = new String[distinctKeys];
+        for (int i = 0; i < distinctKeys; i++) {
+            ips[i] = "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+            urls[i] = "example" + i + ".com";
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void registerRequestFromIp1() {
+        registerRequest();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void registerRequestFromIp4() {
+        registerRequest();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void registerRequestFromIpMax() {
+        registerRequest();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void registerRedirect1() {
+        registerRedirect();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void registerRedirect4() {
+        registerRedirect();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void registerRedirectMax() {
+        registerRedirect();
+    }
+
+    private void registerRequest() {
+        statistics.registerRequestFromIp(ips[ThreadLocalRandom.current().nextInt(distinctKeys)], System.currentTimeMillis());
+    }
+
+    private void registerRedirect() {
+        statistics.registerRedirect(urls[ThreadLocalRandom.current().nextInt(distinctKeys)]);
+    }
+}
@@ -0,0 +1,300 @@
+package com.dmitriytkachenko.nettyhttpserver.loadgen;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseDecoder;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/* One client connection of the test, run by its own event loop. Request n of the whole test goes to connection
+n % connections. In the open loop request n is due at start + n / rate; when it is due while the connection already has
+pipeline requests in flight or is reconnecting, it waits, and its latency still counts from the time it was due.
+In the closed loop a connection sends its next request when a response arrives, so latencies are service times.
+HTTP/1.1 responses come in the order of requests, so they are matched to requests in flight first in, first out.
+Requests are written as encoded bytes, so the pipeline only decodes responses; their bodies are dropped unread.
+*/
+final class ConnectionSlot {
+    private static final long CONNECT_RETRY_MILLIS = 100;
+
+    private final LoadGenerator test;
+    private final EventLoop loop;
+    private final Bootstrap bootstrap;
+    private final List<LoadRoute> routes;
+    private final int pipeline;
+
+    /* Accessed by the event loop only. */
+    private final RequestQueue pending = new RequestQueue();
+    private final RequestQueue inFlight = new RequestQueue();
+    private long nextRequest; // number of the next request of this connection in the whole test
+    private Channel channel; // null while connecting
+    private boolean connecting;
+    private long retryNanos;
+    private boolean reusable; // false after a request of a connection which is not kept alive
+    private int status; // of the response being read
+    private boolean closeAfterResponse;
+    private boolean generating = true;
+    private boolean finished;
+    private ScheduledFuture<?> timeoutCheck;
+
+    ConnectionSlot(LoadGenerator test, int index, EventLoop loop, Bootstrap bootstrap) {
+        this.test = test;
+        this.loop = loop;
+        this.bootstrap = bootstrap.clone(loop).handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline().addLast(new HttpResponseDecoder(), new ResponseHandler());
+            }
+        });
+        this.routes = test.getRoutes();
+        this.pipeline = test.getConfig().getPipeline();
+        this.nextRequest = index;
+    }
+
+    /* Starts sending at the start time of the test. */
+    void start() {
+        loop.schedule(() -> {
+            timeoutCheck = loop.scheduleAtFixedRate(this::checkTimeouts, 1, 1, TimeUnit.SECONDS);
+            if (test.getConfig().isOpenLoop()) {
+                generateDue();
+            } else {
+                long now = System.nanoTime();
+                for (int i = 0; i < pipeline; i++) {
+                    enqueueNext(now);
+                }
+                send();
+            }
+        }, test.getStartNanos() - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /* Stops the connection at the end of the test; the result is the number of requests left without a response. */
+    Future<Integer> stop() {
+        return loop.submit(this::finish);
+    }
+
+    private int finish() {
+        int unfinished = finished ? 0 : pending.size() + inFlight.size();
+        markFinished();
+        giveUp(inFlight);
+        giveUp(pending);
+        return unfinished;
+    }
+
+    /* Queues the requests which are due by now and wakes up when the next one is due. */
+    private void generateDue() {
+        if (finished) {
+            return;
+        }
+        long now = System.nanoTime();
+        long due;
+        while ((due = test.dueNanos(nextRequest)) <= now && due < test.getEndNanos()) {
+            enqueueNext(due);
+        }
+        send();
+        if (due < test.getEndNanos()) {
+            loop.schedule(this::generateDue, due - now, TimeUnit.NANOSECONDS);
+        } else {
+            generating = false;
+            finishIfDrained();
+        }
+    }
+
+    private void enqueueNext(long due) {
+        pending.add(due, 0, test.routeOf(nextRequest));
+        nextRequest += test.getConfig().getConnections();
+    }
+
+    /* Writes pending requests while the connection has room for them, connecting first if needed. */
+    private void send() {
+        if (finished || pending.isEmpty()) {
+            return;
+        }
+        if (channel == null) {
+            connect();
+            return;
+        }
+        boolean written = false;
+        while (!pending.isEmpty() && inFlight.size() < pipeline && reusable && channel.isActive()) {
+            LoadRoute route = routes.get(pending.route());
+            inFlight.add(pending.due(), System.nanoTime(), pending.route());
+            pending.remove();
+            channel.write(route.getRequest().duplicate(), channel.voidPromise());
+            reusable = test.getConfig().isKeepAlive();
+            test.requestSent();
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+    }
+
+    /* After a failed attempt the next one waits for the retry delay, however many requests come due meanwhile. */
+    private void connect() {
+        if (connecting || System.nanoTime() < retryNanos) {
+            return;
+        }
+        connecting = true;
+        bootstrap.connect().addListener((ChannelFuture future) -> {
+            connecting = false;
+            if (finished) {
+                future.channel().close();
+            } else if (future.isSuccess()) {
+                channel = future.channel();
+                reusable = true;
+                send();
+            } else {
+                test.connectFailed();
+                retryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_RETRY_MILLIS);
+                loop.schedule(this::send, CONNECT_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private void responseStarted(HttpResponse response) {
+        status = response.status().code();
+        if (!HttpUtil.isKeepAlive(response)) {
+            closeAfterResponse = true; // requests pipelined after this one will not get responses
+        }
+    }
+
+    private void responseCompleted() {
+        if (closeAfterResponse) {
+            reusable = false;
+            closeAfterResponse = false;
+        }
+        if (inFlight.isEmpty()) {
+            return; // its request has timed out
+        }
+        long now = System.nanoTime();
+        long due = inFlight.due();
+        LoadRoute route = routes.get(inFlight.route());
+        route.record(now - due, now - inFlight.sent());
+        if (status >= 400 && due >= test.getWarmupEndNanos()) {
+            route.countError();
+        }
+        inFlight.remove();
+        test.responseReceived();
+        if (!test.getConfig().isOpenLoop()) {
+            if (now < test.getEndNanos()) {
+                enqueueNext(now);
+            } else {
+                generating = false;
+            }
+        }
+        send();
+        finishIfDrained();
+    }
+
+    private void connectionClosed(Channel ch) {
+        if (ch != channel) {
+            return;
+        }
+        channel = null;
+        if (!inFlight.isEmpty()) {
+            test.requestsFailed(inFlight.size());
+            replaceLost(inFlight.size());
+            inFlight.clear();
+        }
+        send();
+        finishIfDrained();
+    }
+
+    /* Requests in flight longer than the timeout are given up, and the connection is reopened for the rest. */
+    private void checkTimeouts() {
+        if (finished || inFlight.isEmpty()
+                || System.nanoTime() - inFlight.sent() < TimeUnit.MILLISECONDS.toNanos(test.getConfig().getTimeoutMillis())) {
+            return;
+        }
+        test.requestsTimedOut(inFlight.size());
+        replaceLost(inFlight.size());
+        giveUp(inFlight);
+        Channel ch = channel;
+        channel = null;
+        if (ch != null) {
+            ch.close();
+        }
+        send();
+        finishIfDrained();
+    }
+
+    /* Lost requests would stop a closed-loop connection, so it sends new ones instead. */
+    private void replaceLost(int lost) {
+        long now = System.nanoTime();
+        if (test.getConfig().isOpenLoop() || now >= test.getEndNanos()) {
+            return;
+        }
+        for (int i = 0; i < lost; i++) {
+            enqueueNext(now);
+        }
+    }
+
+    /* Responses which have not come are not left out of the latencies, or a server which stops responding
+    would look faster than one which responds slowly. */
+    private void giveUp(RequestQueue requests) {
+        long now = System.nanoTime();
+        while (!requests.isEmpty()) {
+            routes.get(requests.route()).recordUnanswered(now - requests.due());
+            requests.remove();
+        }
+    }
+
+    private void finishIfDrained() {
+        if (!finished && !generating && pending.isEmpty() && inFlight.isEmpty()) {
+            markFinished();
+            test.connectionDrained();
+        }
+    }
+
+    private void markFinished() {
+        finished = true;
+        if (timeoutCheck != null) {
+            timeoutCheck.cancel(false);
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private final class ResponseHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof HttpResponse) {
+                    HttpResponse response = (HttpResponse) msg;
+                    if (!response.decoderResult().isSuccess()) {
+                        ctx.close(); // requests in flight are counted as failed
+                        return;
+                    }
+                    responseStarted(response);
+                }
+                if (msg instanceof LastHttpContent && ctx.channel() == channel) {
+                    responseCompleted();
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            connectionClosed(ctx.channel());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.dmitriytkachenko.nettyhttpserver.loadgen;
+
+/* Load test settings, given like the server's: [--option=value ...], for example:
+--port=8888 --rate=20000 --connections=64 --duration-s=600 --routes=/redirect?url=example.com:9,/status:1
+*/
+public class LoadConfig {
+    private String host = "127.0.0.1";
+    private int port = 8888;
+
+    /* Use native epoll transport (Linux only). Falls back to NIO when it is not available. */
+    private boolean epoll = false;
+
+    /* Number of client event loops, 0 means Netty default (2 * number of cores). */
+    private int threads = 0;
+
+    private int connections = 16;
+
+    /* Requests per second of all connections together, sent on a fixed schedule whether or not responses keep up
+    (open loop). 0 sends the next request as soon as a response arrives (closed loop, like ab). */
+    private double rate = 1000;
+
+    /* Requests a connection may have sent without a response yet. */
+    private int pipeline = 1;
+
+    /* Without keep-alive every request is sent on a new connection and asks the server to close it. */
+    private boolean keepAlive = true;
+
+    /* path:weight pairs; requests are spread over paths in proportion to their weights.
+    /hello holds its connection for 10 seconds, so a mix with it needs many connections or a low rate. */
+    private String routes = "/redirect?url=example.com:9,/status:1";
+
+    /* Latencies of the warmup are not reported; the measured duration follows it. */
+    private long warmupSeconds = 10;
+    private long durationSeconds = 60;
+
+    /* Requests without a response after this time are counted as timed out and their connection is reopened. */
+    private long timeoutMillis = 30000;
+
+    /* File to which latency histograms of every second are written in HdrHistogram log format (none by default). */
+    private String histogramLog = null;
+
+    public static LoadConfig fromArgs(String[] args) {
+        LoadConfig config = new LoadConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            switch (name) {
+                case "host": config.setHost(value); break;
+                case "port": config.setPort(Integer.parseInt(value)); break;
+                case "epoll": config.setEpoll(Boolean.parseBoolean(value)); break;
+                case "threads": config.setThreads(Integer.parseInt(value)); break;
+                case "connections": config.setConnections(Integer.parseInt(value)); break;
+                case "rate": config.setRate(Double.parseDouble(value)); break;
+                case "pipeline": config.setPipeline(Integer.parseInt(value)); break;
+                case "keep-alive": config.setKeepAlive(Boolean.parseBoolean(value)); break;
+                case "routes": config.setRoutes(value); break;
+                case "warmup-s": config.setWarmupSeconds(Long.parseLong(value)); break;
+                case "duration-s": config.setDurationSeconds(Long.parseLong(value)); break;
+                case "timeout-ms": config.setTimeoutMillis(Long.parseLong(value)); break;
+                case "histogram-log": config.setHistogramLog(value.isEmpty() || value.equals("none") ? null : value); break;
+                default: throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (config.getConnections() < 1 || config.getPipeline() < 1) {
+            throw new IllegalArgumentException("connections and pipeline must be positive");
+        }
+        if (config.getRate() < 0) {
+            throw new IllegalArgumentException("rate must not be negative");
+        }
+        if (!config.isKeepAlive() && config.getPipeline() > 1) {
+            throw new IllegalArgumentException("pipelining needs keep-alive connections");
+        }
+        if (config.getDurationSeconds() < 1 || config.getWarmupSeconds() < 0 || config.getTimeoutMillis() < 1) {
+            throw new IllegalArgumentException("duration-s and timeout-ms must be positive, warmup-s must not be negative");
+        }
+        return config;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public void setEpoll(boolean epoll) {
+        this.epoll = epoll;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public boolean isOpenLoop() {
+        return rate > 0;
+    }
+
+    public int getPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(int pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public String getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(String routes) {
+        this.routes = routes;
+    }
+
+    public long getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public void setWarmupSeconds(long warmupSeconds) {
+        this.warmupSeconds = warmupSeconds;
+    }
+
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(long durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public String getHistogramLog() {
+        return histogramLog;
+    }
+
+    public void setHistogramLog(String histogramLog) {
+        this.histogramLog = histogramLog;
+    }
+}
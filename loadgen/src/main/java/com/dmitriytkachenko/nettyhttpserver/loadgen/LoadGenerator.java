@@ -0,0 +1,252 @@
+package com.dmitriytkachenko.nettyhttpserver.loadgen;
+
+import com.dmitriytkachenko.nettyhttpserver.Transport;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/* HTTP load generator for the server: keeps a request mix going for a warmup and a measured duration, printing
+throughput and p99 of every second, then latency percentiles of every route. With a rate it is an open loop,
+so latencies are measured from the time requests were due and are not hidden by coordinated omission;
+see LoadConfig for the options.
+*/
+public class LoadGenerator {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LoadConfig config;
+    private final List<LoadRoute> routes;
+    private final int[] mix;
+    private final long startNanos;
+    private final long warmupEndNanos;
+    private final long endNanos;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final CountDownLatch drained;
+    private long receivedBefore; // by the previous interval
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+        this.routes = LoadRoute.parse(config);
+        this.mix = LoadRoute.mix(routes);
+        this.drained = new CountDownLatch(config.getConnections());
+        startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100); // connections are set up meanwhile
+        warmupEndNanos = startNanos + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        endNanos = warmupEndNanos + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(LoadConfig.fromArgs(args)).run();
+    }
+
+    public void run() throws Exception {
+        Transport transport = Transport.select(config.isEpoll());
+        EventLoopGroup group = transport.newEventLoopGroup(config.getThreads());
+        HistogramLogWriter log = null;
+        try {
+            Bootstrap b = new Bootstrap()
+                    .channel(transport.socketChannelClass())
+                    .remoteAddress(config.getHost(), config.getPort())
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.min(Integer.MAX_VALUE, config.getTimeoutMillis()));
+            List<ConnectionSlot> slots = new ArrayList<>();
+            for (int i = 0; i < config.getConnections(); i++) {
+                slots.add(new ConnectionSlot(this, i, group.next(), b));
+            }
+            System.out.println(describe());
+            for (ConnectionSlot slot : slots) {
+                slot.start();
+            }
+            sleepUntil(startNanos);
+            if (config.getHistogramLog() != null) {
+                log = openLog(config.getHistogramLog());
+            }
+            for (LoadRoute route : routes) {
+                route.takeInterval(false); // intervals start with the test
+            }
+
+            for (long second = 1; startNanos + second * SECOND <= endNanos; second++) {
+                sleepUntil(startNanos + second * SECOND);
+                reportInterval(second, log);
+            }
+            drained.await(config.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            long unfinished = 0;
+            for (ConnectionSlot slot : slots) {
+                unfinished += slot.stop().get();
+            }
+            for (LoadRoute route : routes) {
+                route.takeInterval(true); // responses to the last requests
+            }
+            printSummary(unfinished);
+        } finally {
+            if (log != null) {
+                log.close();
+            }
+            group.shutdownGracefully();
+        }
+    }
+
+    LoadConfig getConfig() {
+        return config;
+    }
+
+    List<LoadRoute> getRoutes() {
+        return routes;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getWarmupEndNanos() {
+        return warmupEndNanos;
+    }
+
+    long getEndNanos() {
+        return endNanos;
+    }
+
+    /* Time request n of the test is due to be sent in the open loop. */
+    long dueNanos(long request) {
+        return startNanos + (long) (request * 1e9 / config.getRate());
+    }
+
+    /* Every connection goes through the whole mix from its own offset, so each route is spread over all connections
+    even when their number and the length of the mix have a common divisor. */
+    int routeOf(long request) {
+        int connections = config.getConnections();
+        return mix[(int) ((request % connections + request / connections) % mix.length)];
+    }
+
+    void requestSent() {
+        sent.increment();
+    }
+
+    void responseReceived() {
+        received.increment();
+    }
+
+    /* Requests whose connection was closed before their responses arrived. */
+    void requestsFailed(int requests) {
+        failed.add(requests);
+    }
+
+    void requestsTimedOut(int requests) {
+        timedOut.add(requests);
+    }
+
+    void connectFailed() {
+        connectFailures.increment();
+    }
+
+    /* Called once by every connection when it has got responses to all of its requests. */
+    void connectionDrained() {
+        drained.countDown();
+    }
+
+    private String describe() {
+        String load = config.isOpenLoop()
+                ? "Open loop at " + config.getRate() + " requests/s"
+                : "Closed loop (every response is followed by the next request, latencies are service times only)";
+        StringBuilder mixed = new StringBuilder();
+        for (LoadRoute route : routes) {
+            mixed.append(mixed.length() == 0 ? "" : ", ").append(route.getPath());
+        }
+        return load + " to " + config.getHost() + ":" + config.getPort() + " on " + config.getConnections() + " connections"
+                + " (pipeline " + config.getPipeline() + ", " + (config.isKeepAlive() ? "keep-alive" : "connection per request") + "), "
+                + config.getDurationSeconds() + " s after " + config.getWarmupSeconds() + " s of warmup; routes: " + mixed;
+    }
+
+    private HistogramLogWriter openLog(String file) throws FileNotFoundException {
+        HistogramLogWriter log = new HistogramLogWriter(new File(file));
+        long startMillis = System.currentTimeMillis();
+        log.outputComment("Response times in microseconds from the time requests were due; untagged intervals are all routes together");
+        log.outputLogFormatVersion();
+        log.outputStartTime(startMillis);
+        log.setBaseTime(startMillis);
+        log.outputLegend();
+        return log;
+    }
+
+    private void reportInterval(long second, HistogramLogWriter log) {
+        boolean measured = startNanos + second * SECOND > warmupEndNanos;
+        Histogram all = new Histogram(3);
+        long receivedNow = received.sum();
+        long responses = receivedNow - receivedBefore;
+        receivedBefore = receivedNow;
+        for (LoadRoute route : routes) {
+            Histogram interval = route.takeInterval(measured);
+            all.add(interval);
+            all.setStartTimeStamp(interval.getStartTimeStamp());
+            all.setEndTimeStamp(interval.getEndTimeStamp());
+            if (log != null) {
+                interval.setTag(tag(route.getPath()));
+                log.outputIntervalHistogram(interval);
+            }
+        }
+        if (log != null) {
+            log.outputIntervalHistogram(all);
+        }
+        System.out.printf("%4d s%s: %d sent, %d responses, p99 %.2f ms, max %.2f ms; so far %d failed, %d timed out, %d connect failures%n",
+                second, measured ? "" : " (warmup)", sent.sumThenReset(), responses,
+                millis(all.getValueAtPercentile(99)), millis(all.getMaxValue()),
+                failed.sum(), timedOut.sum(), connectFailures.sum());
+    }
+
+    private void printSummary(long unfinished) {
+        System.out.println();
+        System.out.println(describe());
+        System.out.printf("%d responses in total, %d failed, %d timed out, %d without a response at the end, %d connect failures%n"
+                        + "(requests which timed out or got no response are in the latencies with the time they had waited)%n",
+                received.sum(), failed.sum(), timedOut.sum(), unfinished, connectFailures.sum());
+        Histogram all = new Histogram(3);
+        for (LoadRoute route : routes) {
+            Histogram response = route.getResponseTotal();
+            all.add(response);
+            System.out.printf("%s: %d requests (%.1f/s), %d with status 400 or above%n", route.getPath(),
+                    response.getTotalCount(), response.getTotalCount() / (double) config.getDurationSeconds(), route.getErrors());
+            System.out.println("  response time, from when requests were due: " + percentiles(response));
+            if (config.isOpenLoop()) {
+                System.out.println("  service time, from when requests were sent: " + percentiles(route.getServiceTotal()));
+            }
+        }
+        System.out.println();
+        System.out.println("Response time distribution of all routes (ms):");
+        all.outputPercentileDistribution(System.out, 5, 1000.0);
+    }
+
+    private static String percentiles(Histogram histogram) {
+        return String.format("p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, p99.99 %.2f, max %.2f ms",
+                millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getValueAtPercentile(99.99)), millis(histogram.getMaxValue()));
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    /* Tags of the log may not contain separators of its format. */
+    private static String tag(String path) {
+        return path.replaceAll("[^A-Za-z0-9/._?=-]", "_");
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long delay;
+        while ((delay = nanoTime - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+}
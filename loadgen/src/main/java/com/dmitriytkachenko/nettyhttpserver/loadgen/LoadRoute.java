@@ -0,0 +1,139 @@
+package com.dmitriytkachenko.nettyhttpserver.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Path of the request mix with its request, encoded once, and latencies of its responses in microseconds.
+Client event loops record into Recorders without locks; every second the reporting thread takes their intervals.
+*/
+final class LoadRoute {
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String path;
+    private final int weight;
+    private final ByteBuf request;
+
+    /* From the time the request was due to be sent, so waiting for a busy or reconnecting connection counts:
+    a stall of the server delays the requests scheduled behind it, and their latencies show it. */
+    private final Recorder responseTime = new Recorder(SIGNIFICANT_DIGITS);
+    /* From the time the request was written, which is all a closed-loop client like ab measures. */
+    private final Recorder serviceTime = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder errors = new LongAdder();
+
+    /* Used by the reporting thread only. */
+    private Histogram responseInterval;
+    private Histogram serviceInterval;
+    private final Histogram responseTotal = new Histogram(SIGNIFICANT_DIGITS);
+    private final Histogram serviceTotal = new Histogram(SIGNIFICANT_DIGITS);
+
+    private LoadRoute(String path, int weight, String host, int port, boolean keepAlive) {
+        this.path = path;
+        this.weight = weight;
+        String head = "GET " + path + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n"
+                + (keepAlive ? "" : "Connection: close\r\n") + "\r\n";
+        request = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(head, CharsetUtil.US_ASCII));
+    }
+
+    /* path:weight pairs separated by commas; a path without a weight has weight 1. */
+    static List<LoadRoute> parse(LoadConfig config) {
+        List<LoadRoute> routes = new ArrayList<>();
+        for (String route : config.getRoutes().split(",")) {
+            route = route.trim();
+            if (route.isEmpty()) {
+                continue;
+            }
+            int colon = route.lastIndexOf(':');
+            String path = route;
+            int weight = 1;
+            if (colon > 0 && route.substring(colon + 1).matches("\\d+")) {
+                path = route.substring(0, colon);
+                weight = Integer.parseInt(route.substring(colon + 1));
+            }
+            if (!path.startsWith("/") || weight < 1) {
+                throw new IllegalArgumentException("Route must be an absolute path with a positive weight: " + route);
+            }
+            routes.add(new LoadRoute(path, weight, config.getHost(), config.getPort(), config.isKeepAlive()));
+        }
+        if (routes.isEmpty()) {
+            throw new IllegalArgumentException("No routes given");
+        }
+        return routes;
+    }
+
+    /* Route indexes in the order requests are sent, one cycle long: every route appears as many times as its weight,
+    spread evenly (smooth weighted round robin), so any stretch of requests keeps the proportions of the mix. */
+    static int[] mix(List<LoadRoute> routes) {
+        int total = 0;
+        for (LoadRoute route : routes) {
+            total += route.weight;
+        }
+        int[] mix = new int[total];
+        int[] current = new int[routes.size()];
+        for (int n = 0; n < total; n++) {
+            int best = 0;
+            for (int i = 0; i < current.length; i++) {
+                current[i] += routes.get(i).weight;
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            mix[n] = best;
+        }
+        return mix;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    /* Shared bytes of the request, to be written as a duplicate. */
+    ByteBuf getRequest() {
+        return request;
+    }
+
+    void record(long responseNanos, long serviceNanos) {
+        responseTime.recordValue(responseNanos / 1000);
+        serviceTime.recordValue(serviceNanos / 1000);
+    }
+
+    /* Requests given up without a response: their latency is at least the time they have waited. */
+    void recordUnanswered(long responseNanos) {
+        responseTime.recordValue(responseNanos / 1000);
+    }
+
+    /* Responses with status 400 and above. */
+    void countError() {
+        errors.increment();
+    }
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+    /* Takes latencies recorded since the previous call; after the warmup they are added to the totals. */
+    Histogram takeInterval(boolean measured) {
+        responseInterval = responseTime.getIntervalHistogram(responseInterval);
+        serviceInterval = serviceTime.getIntervalHistogram(serviceInterval);
+        if (measured) {
+            responseTotal.add(responseInterval);
+            serviceTotal.add(serviceInterval);
+        }
+        return responseInterval;
+    }
+
+    Histogram getResponseTotal() {
+        return responseTotal;
+    }
+
+    Histogram getServiceTotal() {
+        return serviceTotal;
+    }
+}
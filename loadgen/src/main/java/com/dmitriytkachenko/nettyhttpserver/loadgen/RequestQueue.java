@@ -0,0 +1,73 @@
+package com.dmitriytkachenko.nettyhttpserver.loadgen;
+
+/* FIFO of requests of one connection kept in primitive arrays, so queuing a request allocates nothing
+once the arrays have grown to the connection's backlog. Times are System.nanoTime() values.
+*/
+final class RequestQueue {
+    private long[] due = new long[16];
+    private long[] sent = new long[16];
+    private int[] route = new int[16];
+    private int head;
+    private int size;
+
+    void add(long dueNanos, long sentNanos, int routeIndex) {
+        if (size == due.length) {
+            grow();
+        }
+        int tail = (head + size) & (due.length - 1);
+        due[tail] = dueNanos;
+        sent[tail] = sentNanos;
+        route[tail] = routeIndex;
+        size++;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /* Time the first request was due to be sent. */
+    long due() {
+        return due[head];
+    }
+
+    /* Time the first request was written to its connection. */
+    long sent() {
+        return sent[head];
+    }
+
+    int route() {
+        return route[head];
+    }
+
+    void remove() {
+        head = (head + 1) & (due.length - 1);
+        size--;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /* Capacity stays a power of two, and the requests are moved to the beginning of the new arrays in order. */
+    private void grow() {
+        int capacity = due.length;
+        due = unwrap(due, new long[capacity * 2]);
+        sent = unwrap(sent, new long[capacity * 2]);
+        int[] routes = new int[capacity * 2];
+        System.arraycopy(route, head, routes, 0, capacity - head);
+        System.arraycopy(route, 0, routes, capacity - head, head);
+        route = routes;
+        head = 0;
+    }
+
+    private long[] unwrap(long[] values, long[] grown) {
+        System.arraycopy(values, head, grown, 0, values.length - head);
+        System.arraycopy(values, 0, grown, values.length - head, head);
+        return grown;
+    }
+}
@@ -0,0 +1,309 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Binary log of every response, kept off the event loops. When a response is flushed, its worker thread puts
+a fixed-size record into a ring buffer of its own (one producer, the writer thread is the only consumer), which takes
+no locks and allocates nothing; when the ring is full because the disk falls behind, the record is dropped and counted.
+A background thread drains the rings in batches into the current segment, a memory-mapped file, and starts the next
+segment when it is full; only the newest segments are kept. AccessLogDecoder prints segments as text.
+
+Segment: header of HEADER_SIZE bytes, then records.
+Header: long magic, int record size, int header size, long creation time (epoch ms), long number of records
+(updated after every batch), int number of routes, then for every route by id: short length and UTF-8 name.
+Record: long flush time (epoch ms), long connection id (of the stream for HTTP/2), long body bytes as the route
+produced them, before compression (-1 for streamed bodies), int latency from request decoding to flush (microseconds),
+short status, short route id, 16 bytes client address (IPv4 mapped to IPv6). Batches of different threads are interleaved,
+so records are ordered by time within a thread only.
+*/
+public class AccessLog {
+    private static final AccessLog INSTANCE = new AccessLog();
+    static final long MAGIC = 0x4e48534143434c31L; // "NHSACCL1"
+    static final int HEADER_SIZE = 4096;
+    static final int RECORD_SIZE = 48;
+    static final int COUNT_OFFSET = 24;
+    static final int ROUTES_OFFSET = 32;
+    /* A segment is mapped as a whole, so it has to fit in an int. */
+    static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final String SEGMENT_PREFIX = "access-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final ThreadLocal<RecordQueue> queues = ThreadLocal.withInitial(this::newQueue);
+    private final List<RecordQueue> allQueues = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean enabled;
+    private volatile int queueCapacity = 16384;
+    /* Written by the writer thread only. */
+    private volatile long written;
+
+    private ScheduledExecutorService writer;
+    private Path directory;
+    private long segmentRecords;
+    private int maxSegments;
+    private long segmentNumber;
+    private FileChannel segment;
+    private MappedByteBuffer map;
+    private long segmentCount;
+    private int routesWritten;
+
+    private AccessLog() { }
+
+    public static AccessLog getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /* Segments of segmentBytes each, of which maxSegments are kept (0 keeps all); every worker thread queues up to
+    queueRecords records, which are written every flushIntervalMillis. Has to be called before the server starts. */
+    public synchronized void start(Path directory, long segmentBytes, int maxSegments, int queueRecords,
+                                   long flushIntervalMillis) throws IOException {
+        if (segmentBytes < HEADER_SIZE + RECORD_SIZE || segmentBytes > MAX_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("Access log segment size must be between "
+                    + (HEADER_SIZE + RECORD_SIZE) + " and " + MAX_SEGMENT_BYTES + " bytes");
+        }
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.segmentRecords = (segmentBytes - HEADER_SIZE) / RECORD_SIZE;
+        this.maxSegments = maxSegments;
+        this.queueCapacity = queueRecords;
+        List<Path> existing = segments(directory);
+        segmentNumber = existing.isEmpty() ? 0 : number(existing.get(existing.size() - 1));
+        rotate();
+        enabled = true;
+        writer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("access-log", true));
+        writer.scheduleWithFixedDelay(this::drainQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /* Writes the queued records and closes the segment. */
+    public synchronized void stop() {
+        if (writer == null) {
+            return;
+        }
+        enabled = false;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+            drain();
+            closeSegment();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    /* Called by worker threads as responses are flushed; address is 16 bytes, see address(). */
+    void log(long timeMillis, long connectionId, long bodyBytes, long latencyNanos, int status, int route, byte[] address) {
+        if (enabled && !queues.get().offer(timeMillis, connectionId, bodyBytes, latencyNanos, status, route, address)) {
+            dropped.increment();
+        }
+    }
+
+    /* Client address as records store it, IPv4 addresses mapped to ::ffff:a.b.c.d; zeros for local and embedded channels. */
+    static byte[] address(SocketAddress address) {
+        byte[] bytes = new byte[16];
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null) {
+            byte[] ip = ((InetSocketAddress) address).getAddress().getAddress();
+            if (ip.length == 4) {
+                bytes[10] = (byte) 0xff;
+                bytes[11] = (byte) 0xff;
+                System.arraycopy(ip, 0, bytes, 12, 4);
+            } else {
+                System.arraycopy(ip, 0, bytes, 0, 16);
+            }
+        }
+        return bytes;
+    }
+
+    /* Segment files of the directory in the order they were written. */
+    static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments); // numbers are zero-padded
+        return segments;
+    }
+
+    private static long number(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private RecordQueue newQueue() {
+        RecordQueue queue = new RecordQueue(queueCapacity);
+        allQueues.add(queue);
+        return queue;
+    }
+
+    private void drainQuietly() {
+        try {
+            drain();
+        } catch (IOException e) {
+            e.printStackTrace(); // keep the writer running, records stay queued or are dropped meanwhile
+        }
+    }
+
+    /* Copies queued records into segments, a contiguous run of a ring at a time, and frees them in the ring. */
+    private void drain() throws IOException {
+        for (RecordQueue queue : allQueues) {
+            long head = queue.head.get();
+            long tail = queue.tail.get();
+            while (head < tail) {
+                if (segmentCount == segmentRecords) {
+                    rotate();
+                }
+                int offset = (int) (head & queue.mask);
+                int records = (int) Math.min(Math.min(tail - head, queue.mask + 1 - offset), segmentRecords - segmentCount);
+                map.position((int) (HEADER_SIZE + segmentCount * RECORD_SIZE));
+                map.put(queue.ring, offset * RECORD_SIZE, records * RECORD_SIZE);
+                segmentCount += records;
+                written += records;
+                head += records;
+                queue.head.lazySet(head);
+            }
+        }
+        writeRoutes(); // routes of the records are registered before the records are queued
+        map.putLong(COUNT_OFFSET, segmentCount);
+    }
+
+    /* Route names are written as routes are registered, as many as the header has room for. */
+    private void writeRoutes() {
+        List<RouteMetrics> routes = ServerMetrics.getInstance().getRoutes();
+        if (routes.size() == routesWritten) {
+            return;
+        }
+        int position = ROUTES_OFFSET + 4;
+        int count = 0;
+        for (RouteMetrics route : routes) {
+            byte[] name = route.getRoute().getBytes(CharsetUtil.UTF_8);
+            if (position + 2 + name.length > HEADER_SIZE) {
+                break;
+            }
+            map.position(position);
+            map.putShort((short) name.length).put(name);
+            position += 2 + name.length;
+            count++;
+        }
+        map.putInt(ROUTES_OFFSET, count);
+        routesWritten = routes.size();
+    }
+
+    private void rotate() throws IOException {
+        closeSegment();
+        Path file = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, ++segmentNumber, SEGMENT_SUFFIX));
+        segment = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = segment.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + segmentRecords * RECORD_SIZE);
+        map.putLong(0, MAGIC).putInt(8, RECORD_SIZE).putInt(12, HEADER_SIZE)
+                .putLong(16, System.currentTimeMillis()).putLong(COUNT_OFFSET, 0);
+        segmentCount = 0;
+        routesWritten = 0;
+        writeRoutes();
+        deleteOldSegments();
+    }
+
+    /* A segment is truncated to its records when it is closed; the one being written is as large as it will be. */
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        map.putLong(COUNT_OFFSET, segmentCount);
+        map.force();
+        map = null;
+        try {
+            segment.truncate(HEADER_SIZE + segmentCount * RECORD_SIZE);
+        } catch (IOException e) {
+            // A file which is still mapped cannot be truncated on some platforms; readers go by the record count.
+        }
+        segment.close();
+        segment = null;
+    }
+
+    private void deleteOldSegments() throws IOException {
+        if (maxSegments <= 0) {
+            return;
+        }
+        List<Path> segments = segments(directory);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    /* Ring of records of one worker thread. The producer fills a slot and then publishes it by advancing the tail;
+    the writer copies published slots and then frees them by advancing the head. */
+    private static final class RecordQueue {
+        private final byte[] ring;
+        private final ByteBuffer buffer;
+        private final long mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        /* Head as the producer last read it, so a full check reads the writer's counter only when the ring seems full. */
+        private long cachedHead;
+
+        RecordQueue(int capacity) {
+            int records = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1; // power of two
+            ring = new byte[records * RECORD_SIZE];
+            buffer = ByteBuffer.wrap(ring);
+            mask = records - 1;
+        }
+
+        boolean offer(long timeMillis, long connectionId, long bodyBytes, long latencyNanos, int status, int route, byte[] address) {
+            long t = tail.get();
+            if (t - cachedHead > mask) {
+                cachedHead = head.get();
+                if (t - cachedHead > mask) {
+                    return false;
+                }
+            }
+            int offset = (int) (t & mask) * RECORD_SIZE;
+            buffer.putLong(offset, timeMillis)
+                    .putLong(offset + 8, connectionId)
+                    .putLong(offset + 16, bodyBytes)
+                    .putInt(offset + 24, (int) Math.min(Integer.MAX_VALUE, latencyNanos / 1000))
+                    .putShort(offset + 28, (short) status)
+                    .putShort(offset + 30, (short) route);
+            System.arraycopy(address, 0, ring, offset + 32, 16);
+            tail.lazySet(t + 1);
+            return true;
+        }
+    }
+}
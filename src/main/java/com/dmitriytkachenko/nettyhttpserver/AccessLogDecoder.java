@@ -0,0 +1,109 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.util.CharsetUtil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+/* Prints access log segments as text, one tab-separated line per record: time (ISO-8601, UTC), client address, route,
+status, body bytes (- for streamed bodies), latency in microseconds and connection id.
+Usage: java -cp netty-http-server.jar com.dmitriytkachenko.nettyhttpserver.AccessLogDecoder <segment or directory> ...
+Segments of a directory are printed in the order they were written. The segment which the server is writing
+can be read as well, up to its last complete batch.
+*/
+public class AccessLogDecoder {
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: AccessLogDecoder <segment or directory> ...");
+            System.exit(2);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, CharsetUtil.UTF_8), 64 * 1024);
+        for (String arg : args) {
+            Path path = Paths.get(arg);
+            List<Path> segments = Files.isDirectory(path) ? AccessLog.segments(path) : Collections.singletonList(path);
+            for (Path segment : segments) {
+                decode(segment, out);
+            }
+        }
+        out.flush();
+    }
+
+    public static void decode(Path segment, Writer out) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(AccessLog.HEADER_SIZE);
+            int read;
+            do {
+                read = channel.read(header);
+            } while (read > 0 && header.hasRemaining());
+            if (header.position() < AccessLog.ROUTES_OFFSET + 4 || header.getLong(0) != AccessLog.MAGIC) {
+                throw new IOException(segment + " is not an access log segment");
+            }
+            int recordSize = header.getInt(8);
+            int headerSize = header.getInt(12);
+            if (recordSize < AccessLog.RECORD_SIZE || headerSize < AccessLog.HEADER_SIZE) {
+                throw new IOException(segment + " has an unknown layout");
+            }
+            String[] routes = routes(header);
+            long count = Math.min(header.getLong(AccessLog.COUNT_OFFSET), Math.max(0, channel.size() - headerSize) / recordSize);
+            if (count == 0) {
+                return;
+            }
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, headerSize, count * recordSize);
+            StringBuilder line = new StringBuilder(128);
+            byte[] address = new byte[16];
+            for (long i = 0; i < count; i++) {
+                int offset = (int) (i * recordSize);
+                int route = records.getShort(offset + 30) & 0xffff;
+                long bodyBytes = records.getLong(offset + 16);
+                records.position(offset + 32);
+                records.get(address);
+                line.setLength(0);
+                line.append(Instant.ofEpochMilli(records.getLong(offset))).append('\t')
+                        .append(address(address)).append('\t')
+                        .append(route < routes.length ? routes[route] : "#" + route).append('\t')
+                        .append(records.getShort(offset + 28)).append('\t')
+                        .append(bodyBytes < 0 ? "-" : Long.toString(bodyBytes)).append('\t')
+                        .append(records.getInt(offset + 24)).append('\t')
+                        .append(records.getLong(offset + 8)).append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    private static String[] routes(ByteBuffer header) {
+        int count = header.getInt(AccessLog.ROUTES_OFFSET);
+        String[] routes = new String[Math.max(0, count)];
+        int position = AccessLog.ROUTES_OFFSET + 4;
+        for (int i = 0; i < routes.length; i++) {
+            int length = header.getShort(position);
+            routes[i] = new String(header.array(), position + 2, length, CharsetUtil.UTF_8);
+            position += 2 + length;
+        }
+        return routes;
+    }
+
+    /* IPv4-mapped addresses are printed as IPv4, the zero address of local channels as "-". */
+    private static String address(byte[] address) throws IOException {
+        boolean zero = true;
+        for (byte b : address) {
+            zero &= b == 0;
+        }
+        if (zero) {
+            return "-";
+        }
+        return InetAddress.getByAddress(address).getHostAddress(); // Java turns IPv4-mapped addresses into Inet4Address
+    }
+}
@@ -0,0 +1,185 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Limits which protect the server from single clients: open connections per IP, request rate per IP
+(token bucket: a client may send a burst of requests, after which it is limited to the refill rate)
+and open connections in total. A limit of 0 is no limit.
+Clients are keyed by address without port, so all connections of a client share their bucket.
+Connections are counted as they are admitted in the boss loop, before their channels are registered,
+so a burst of accepts cannot get past the limits before its connections show up in the statistics.
+*/
+public class AdmissionController {
+    private static final AdmissionController INSTANCE = new AdmissionController();
+
+    /* Clients which have no open connections and a full bucket are no different from new ones,
+    so they are forgotten by a background sweep this often. */
+    private static final long EVICTION_INTERVAL_SECONDS = 10;
+
+    /* Connection counts of clients are only changed in compute functions of the map, which lock the client's bin,
+    so a client is never evicted between its lookup and the count of a new connection. */
+    private final ConcurrentHashMap<Object, Client> clients = new ConcurrentHashMap<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder refusedConnections = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+    private volatile int maxConnections;
+    private volatile int maxConnectionsPerIp;
+    private volatile double requestsPerSecond;
+    private volatile double burst;
+    private ScheduledExecutorService evictor;
+
+    private AdmissionController() { }
+
+    public static AdmissionController getInstance() {
+        return INSTANCE;
+    }
+
+    public void configure(int maxConnections, int maxConnectionsPerIp, double requestsPerSecond, int burst) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = Math.max(burst, 1);
+    }
+
+    /* Starts the sweep of idle clients if clients are tracked at all. */
+    public synchronized void start() {
+        if (evictor == null && (maxConnectionsPerIp > 0 || isRateLimited())) {
+            evictor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("admission-eviction", true));
+            evictor.scheduleWithFixedDelay(this::evictIdle, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+    }
+
+    public boolean isConnectionLimited() {
+        return maxConnections > 0 || maxConnectionsPerIp > 0;
+    }
+
+    public boolean isRateLimited() {
+        return requestsPerSecond > 0;
+    }
+
+    /* Counts the connection of the client if it is admitted; connectionClosed must be called when it is closed. */
+    public boolean admitConnection(SocketAddress address) {
+        if (openConnections.incrementAndGet() > maxConnections && maxConnections > 0) {
+            openConnections.decrementAndGet();
+            refusedConnections.increment();
+            return false;
+        }
+        if (maxConnectionsPerIp > 0 && !admitClientConnection(key(address))) {
+            openConnections.decrementAndGet();
+            refusedConnections.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean admitClientConnection(Object key) {
+        int max = maxConnectionsPerIp;
+        boolean[] admitted = {false};
+        clients.compute(key, (k, client) -> {
+            if (client == null) {
+                client = new Client(burst);
+            }
+            if (client.connections < max) {
+                client.connections++;
+                admitted[0] = true;
+            }
+            return client;
+        });
+        return admitted[0];
+    }
+
+    public void connectionClosed(SocketAddress address) {
+        openConnections.decrementAndGet();
+        if (maxConnectionsPerIp > 0) {
+            // Clients with connections are not evicted, so the client of an admitted connection is still there.
+            clients.computeIfPresent(key(address), (k, client) -> {
+                client.connections--;
+                return client;
+            });
+        }
+    }
+
+    /* Takes a token from the client's bucket. */
+    public boolean admitRequest(SocketAddress address) {
+        if (!isRateLimited() || client(address).tryAcquire(requestsPerSecond, burst)) {
+            return true;
+        }
+        rejectedRequests.increment();
+        return false;
+    }
+
+    public long getRefusedConnections() {
+        return refusedConnections.sum();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    private static Object key(SocketAddress address) {
+        return address instanceof InetSocketAddress ? ((InetSocketAddress) address).getAddress() : address;
+    }
+
+    /* Plain get first: computeIfAbsent locks the bin even when the key is present. */
+    private Client client(SocketAddress address) {
+        Object key = key(address);
+        Client client = clients.get(key);
+        return client != null ? client : clients.computeIfAbsent(key, k -> new Client(burst));
+    }
+
+    /* Each client is checked and removed under the lock of its bin, so it cannot take a connection meanwhile. */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        double rate = requestsPerSecond;
+        double burst = this.burst;
+        for (Object key : clients.keySet()) {
+            clients.computeIfPresent(key, (k, client) -> client.isIdle(now, rate, burst) ? null : client);
+        }
+    }
+
+    private static final class Client {
+        /* Changed and read under the lock of the client's bin in the map only. */
+        int connections;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        Client(double burst) {
+            tokens = burst;
+        }
+
+        synchronized boolean tryAcquire(double rate, double burst) {
+            refill(System.nanoTime(), rate, burst);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        synchronized boolean isIdle(long now, double rate, double burst) {
+            refill(now, rate, burst);
+            return connections == 0 && tokens >= burst;
+        }
+
+        private void refill(long now, double rate, double burst) {
+            tokens = Math.min(burst, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+            refilled = now;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/* Runs route handlers which block (file reads, database lookups) away from the event loops.
+Either a bounded pool with a bounded queue, or a virtual thread per task when the JVM supports them (Java 21+).
+*/
+public class BlockingExecutor {
+    private static final BlockingExecutor INSTANCE = new BlockingExecutor();
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private ExecutorService executor;
+
+    private BlockingExecutor() { }
+
+    public static BlockingExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void start(boolean virtualThreads, int threads, int queueCapacity) {
+        if (executor != null) {
+            return;
+        }
+        if (virtualThreads) {
+            executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                return;
+            }
+            System.err.println("Virtual threads are not available, using a thread pool for blocking routes");
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new DefaultThreadFactory("blocking-routes", true));
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            start(false, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+        }
+        return executor;
+    }
+
+    /* Returns false when the task is rejected because the queue is full. */
+    public boolean submit(Runnable task) {
+        try {
+            executor().execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /* Looked up reflectively, the project is compiled for Java 8. */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
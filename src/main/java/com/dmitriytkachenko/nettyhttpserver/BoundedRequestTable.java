@@ -0,0 +1,149 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Memory-bounded table: per-key counts come from a Count-Min sketch, the number of keys from a HyperLogLog,
+and only the top-K keys are kept by name in a Space-Saving table.
+Space-Saving replaces its least counted entry whenever an unmonitored key arrives, which would serialize
+every request from a flood of distinct sources. Here the sketch acts as the filter (as in Filtered Space-Saving):
+a key only competes for a slot once its estimated count exceeds the minimum monitored count.
+*/
+public class BoundedRequestTable implements RequestTable {
+    private final int capacity;
+    private final CountMinSketch sketch;
+    private final HyperLogLog distinctKeys;
+    private final ConcurrentHashMap<String, Entry> monitored = new ConcurrentHashMap<>();
+
+    /* Count of the least counted monitored entry, 0 while there are free slots. */
+    private volatile long minMonitoredCount = 0;
+
+    public BoundedRequestTable(int capacity, double epsilon, double delta, int hllPrecision) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        sketch = new CountMinSketch(epsilon, delta);
+        distinctKeys = new HyperLogLog(hllPrecision);
+    }
+
+    @Override
+    public void register(String key, long timestamp) {
+        register(key, 1, timestamp);
+    }
+
+    private void register(String key, long count, long timestamp) {
+        long hash = Hashing.hash64(key);
+        distinctKeys.add(hash);
+        long estimate = sketch.add(hash, count);
+
+        Entry entry = monitored.get(key);
+        if (entry != null) {
+            entry.register(estimate, timestamp);
+        } else if (estimate > minMonitoredCount) {
+            admit(key, estimate, timestamp);
+        }
+    }
+
+    private synchronized void admit(String key, long estimate, long timestamp) {
+        Entry entry = monitored.get(key);
+        if (entry != null) {
+            entry.register(estimate, timestamp);
+            return;
+        }
+        if (monitored.size() >= capacity) {
+            Entry min = findMin();
+            if (min.count.get() >= estimate) {
+                return; // lost the race to another update of the minimum
+            }
+            monitored.remove(min.key);
+        }
+        entry = new Entry(key);
+        entry.register(estimate, timestamp);
+        monitored.put(key, entry);
+        minMonitoredCount = monitored.size() >= capacity ? findMin().count.get() : 0;
+    }
+
+    private Entry findMin() {
+        Entry min = null;
+        for (Entry e : monitored.values()) {
+            if (min == null || e.count.get() < min.count.get()) {
+                min = e;
+            }
+        }
+        return min;
+    }
+
+    /* Only monitored keys are persisted. An entry which is evicted and admitted again is persisted with its
+    full estimate, so restored counts are upper bounds, as all counts of this table are. */
+    @Override
+    public void trackChanges() {
+    }
+
+    @Override
+    public void drainChanges(EntryVisitor visitor) {
+        monitored.values().forEach((e) -> {
+            long count = e.count.get();
+            long delta = count - e.persistedCount;
+            if (delta > 0) {
+                e.persistedCount = count;
+                e.persistedLastRequest = e.lastRequest.get();
+                visitor.visit(e.key, delta, e.persistedLastRequest);
+            }
+        });
+    }
+
+    @Override
+    public void forEachPersisted(EntryVisitor visitor) {
+        monitored.values().forEach((e) -> {
+            if (e.persistedCount > 0) {
+                visitor.visit(e.key, e.persistedCount, e.persistedLastRequest);
+            }
+        });
+    }
+
+    @Override
+    public void restore(String key, long count, long lastRequest) {
+        register(key, count, lastRequest);
+        Entry entry = monitored.get(key);
+        if (entry != null) {
+            entry.persistedCount = entry.count.get();
+            entry.persistedLastRequest = entry.lastRequest.get();
+        }
+    }
+
+    @Override
+    public long getNumberOfKeys() {
+        return distinctKeys.estimate();
+    }
+
+    /* Visits the top-K keys, most frequent first. */
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        List<Entry> entries = new ArrayList<>(monitored.values());
+        entries.sort(Comparator.comparingLong((Entry e) -> e.count.get()).reversed());
+        entries.forEach((e) -> visitor.visit(e.key, e.count.get(), e.lastRequest.get()));
+    }
+
+    private static final class Entry {
+        private final String key;
+        /* Count is the sketch estimate, so it is an upper bound of the real count. */
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong lastRequest = new AtomicLong();
+        /* Persistence state, only accessed by the journal thread. */
+        private long persistedCount;
+        private long persistedLastRequest;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        private void register(long estimate, long timestamp) {
+            count.accumulateAndGet(estimate, Math::max);
+            lastRequest.accumulateAndGet(timestamp, Math::max);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/* Fully rendered response which is built once and shared by all channels.
+Body buffers are read-only and never released; every response gets its own retained duplicate of them,
+so concurrent writes do not disturb each other's reader indexes.
+Cached bodies are smaller than the minimum size of compression, so they are not compressed in advance.
+*/
+public class CachedResponse {
+    private final HttpResponseStatus status;
+    private final ByteBuf body;
+    private final HttpHeaders headers = new DefaultHttpHeaders();
+
+    public CachedResponse(HttpResponseStatus status, String contentType, ByteBuf content) {
+        this.status = status;
+        body = readOnlyDirect(content);
+        content.release();
+        if (contentType != null) {
+            headers.set(HttpHeaderNames.CONTENT_TYPE, contentType);
+        }
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+    }
+
+    /* Adds a header to the response while it is being set up. */
+    CachedResponse setHeader(CharSequence name, Object value) {
+        headers.set(name, value);
+        return this;
+    }
+
+    public FullHttpResponse newResponse() {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, body.duplicate().retain());
+        response.headers().set(headers);
+        return response;
+    }
+
+    /* Copies readable bytes of the content, which stays owned by the caller. */
+    static ByteBuf readOnlyDirect(ByteBuf content) {
+        ByteBuf direct = Unpooled.directBuffer(content.readableBytes()).writeBytes(content, content.readerIndex(), content.readableBytes());
+        return direct.asReadOnly();
+    }
+}
@@ -0,0 +1,111 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.concurrent.TimeUnit;
+
+/* Decides whether and how hard a response is compressed.
+Small bodies and content types which are already compressed (images, archives) are sent as they are.
+Levels may be set per route path; level 0 turns compression off for the route.
+Under load, when event loop queue latency exceeds the threshold, the level drops to the fastest one,
+and compression stops altogether once latency is twice the threshold.
+*/
+public class CompressionPolicy {
+    static final int FASTEST_LEVEL = 1;
+
+    private final int minSize;
+    private final int level;
+    private final String[] contentTypes;
+    private final String[] routePaths;
+    private final int[] routeLevels;
+    private final long loadThresholdNanos;
+
+    /* contentTypes: comma-separated prefixes, for example "text/,application/json";
+    routeLevels: comma-separated path:level pairs, for example "/status:4,/hello:0";
+    loadThresholdMillis: 0 disables the load-aware mode. */
+    public CompressionPolicy(int minSize, int level, String contentTypes, String routeLevels, long loadThresholdMillis) {
+        checkLevel(level);
+        this.minSize = minSize;
+        this.level = level;
+        this.contentTypes = split(contentTypes);
+        String[] routes = split(routeLevels);
+        routePaths = new String[routes.length];
+        this.routeLevels = new int[routes.length];
+        for (int i = 0; i < routes.length; i++) {
+            int colon = routes[i].lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Route compression level must be path:level, got " + routes[i]);
+            }
+            routePaths[i] = stripTrailingSlash(routes[i].substring(0, colon));
+            this.routeLevels[i] = checkLevel(Integer.parseInt(routes[i].substring(colon + 1)));
+        }
+        loadThresholdNanos = TimeUnit.MILLISECONDS.toNanos(loadThresholdMillis);
+    }
+
+    public static CompressionPolicy fromConfig(HttpServerConfig config) {
+        return new CompressionPolicy(config.getCompressionMinSize(), config.getCompressionLevel(),
+                config.getCompressionTypes(), config.getCompressionRouteLevels(), config.getCompressionLoadThresholdMillis());
+    }
+
+    /* Level configured for the path of the request URI (query is ignored). */
+    public int levelFor(String uri) {
+        int end = uri.indexOf('?');
+        if (end < 0) {
+            end = uri.length();
+        }
+        if (end > 1 && uri.charAt(end - 1) == '/') {
+            end--;
+        }
+        for (int i = 0; i < routePaths.length; i++) {
+            if (routePaths[i].length() == end && uri.regionMatches(0, routePaths[i], 0, end)) {
+                return routeLevels[i];
+            }
+        }
+        return level;
+    }
+
+    /* Unknown length (-1) means a streamed body, which is assumed to be large enough. */
+    public boolean isCompressible(String contentType, long contentLength) {
+        if (contentType == null || (contentLength >= 0 && contentLength < minSize)) {
+            return false;
+        }
+        for (String prefix : contentTypes) {
+            if (contentType.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Returns 0 when the response should not be compressed at this latency. */
+    public int adjustForLoad(int level, long queueLatencyNanos) {
+        if (loadThresholdNanos == 0 || queueLatencyNanos <= loadThresholdNanos) {
+            return level;
+        }
+        return queueLatencyNanos > 2 * loadThresholdNanos ? 0 : Math.min(level, FASTEST_LEVEL);
+    }
+
+    public boolean isLoadAware() {
+        return loadThresholdNanos > 0;
+    }
+
+    private static int checkLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9, got " + level);
+        }
+        return level;
+    }
+
+    private static String[] split(String list) {
+        if (list == null || list.trim().isEmpty()) {
+            return new String[0];
+        }
+        String[] items = list.split(",");
+        for (int i = 0; i < items.length; i++) {
+            items[i] = items[i].trim();
+        }
+        return items;
+    }
+
+    private static String stripTrailingSlash(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+}
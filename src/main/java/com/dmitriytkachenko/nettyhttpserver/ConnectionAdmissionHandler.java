@@ -0,0 +1,30 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.net.SocketAddress;
+
+/* Handler of server channels, which receive accepted connections as messages in the boss loop.
+Connections over the limits of AdmissionController are closed right away, before they are registered
+with a worker loop and their pipeline is built.
+*/
+@ChannelHandler.Sharable
+public class ConnectionAdmissionHandler extends ChannelInboundHandlerAdapter {
+    private final AdmissionController admission = AdmissionController.getInstance();
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        Channel child = (Channel) msg;
+        SocketAddress address = child.remoteAddress();
+        if (!admission.admitConnection(address)) {
+            child.unsafe().closeForcibly();
+            return;
+        }
+        child.closeFuture().addListener((ChannelFutureListener) future -> admission.connectionClosed(address));
+        ctx.fireChannelRead(child);
+    }
+}
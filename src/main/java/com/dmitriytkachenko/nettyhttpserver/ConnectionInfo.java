@@ -1,108 +1,175 @@
 package com.dmitriytkachenko.nettyhttpserver;
 
-import java.io.Serializable;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
-import java.util.HashSet;
-import java.util.Set;
-
-/* One instance of this class per pipeline.
-Netty guarantees that a given pipeline instance is always called back from the same worker thread
-(unless there are executors in pipeline).
-However, this class is accessed by HttpServerStatistics to produce info for HttpServerHandler,
-which can cause ConcurrentModificationException. So, this class is made thread-safe.
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* One instance of this class per pipeline, and one may be kept per open connection, so it is kept compact:
+times are epoch milliseconds, the client address is turned into text once and only a few distinct URIs are stored.
+Fields are written from the channel's event loop and read by the thread which renders statistics, so they are volatile
+(URIs are only appended, a reader may miss the latest one).
 */
-public class ConnectionInfo implements Serializable {
-    private static long count = 0;
+public class ConnectionInfo {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static final long NOT_SET = -1;
+
+    /* Client can visit multiple URIs using one connection in case it is using HTTP keep-alive (which most browsers do).
+    Only this many distinct URIs are stored per connection, the rest are counted. */
+    private static final int MAX_URIS = 4;
+
     private final long connectionId;
-    private LocalDateTime established;
-    private LocalDateTime closed;
-    private String ip;
 
-    /* Client can visit multiple URIs using one connection in case it is using HTTP keep-alive (which most browsers do). */
-    private Set<String> uris;
+    /* HTTP/2 stream of a connection, 0 for connections themselves. */
+    private volatile int streamId;
+    private volatile long established = NOT_SET;
+    private volatile long closed = NOT_SET;
+
+    /* Client IP as it is shown and counted in statistics, without port. */
+    private volatile String ip;
+
+    private String[] uris;
+    private volatile int uriCount;
+    private volatile int otherUris;
 
-    private long bytesSent;
-    private long bytesReceived;
+    private volatile long bytesSent;
+    private volatile long bytesReceived;
+
+    /* Why the server closed the connection, null if it was closed by the client or after a response without keep-alive. */
+    private volatile ConnectionOutcome outcome;
 
     public ConnectionInfo() {
-        connectionId = count;
-        ++count;
-        uris = new HashSet<>();
+        connectionId = NEXT_ID.getAndIncrement();
     }
 
     /* Get comma-separated URIs */
-    public synchronized String getUrisAsString() {
+    public String getUrisAsString() {
         StringBuilder sb = new StringBuilder();
-        uris.forEach((uri) -> sb.append(uri).append(", "));
+        int count = uriCount; // volatile read publishes the array and its first count elements
+        for (int i = 0; i < count; i++) {
+            sb.append(uris[i]).append(", ");
+        }
         if (sb.length() > 1) {
             sb.delete(sb.length() - 2, sb.length());
         }
+        if (otherUris > 0) {
+            sb.append(" and ").append(otherUris).append(" more");
+        }
         return sb.toString();
     }
 
-    public synchronized double getSpeed() {
-        double connectionDuration = ChronoUnit.MILLIS.between(established, closed);
+    public double getSpeed() {
+        double connectionDuration = closed - established;
         connectionDuration /= 1000; // to seconds
 
         /* Round to 3 decimal places. */
         return Math.round((((double)bytesSent + (double)bytesReceived) / connectionDuration) * 1000.0) / 1000.0;
     }
 
-    public synchronized long getConnectionId() {
+    public long getConnectionId() {
         return connectionId;
     }
 
-    public synchronized long getBytesReceived() {
+    public long getBytesReceived() {
         return bytesReceived;
     }
 
-    public synchronized void setBytesReceived(long bytesReceived) {
+    public void setBytesReceived(long bytesReceived) {
         this.bytesReceived = bytesReceived;
     }
 
-    public synchronized LocalDateTime getEstablished() {
+    /* Only called from the channel's event loop. */
+    public void addBytesReceived(long bytes) {
+        bytesReceived += bytes;
+    }
+
+    /* Epoch milliseconds */
+    public long getEstablished() {
         return established;
     }
 
-    public synchronized void setEstablished(LocalDateTime established) {
+    public void setEstablished(long established) {
         this.established = established;
     }
 
-    public synchronized LocalDateTime getClosed() {
+    public boolean isClosed() {
+        return closed != NOT_SET;
+    }
+
+    /* Epoch milliseconds */
+    public long getClosed() {
         return closed;
     }
 
-    public synchronized void setClosed(LocalDateTime closed) {
+    public void setClosed(long closed) {
         this.closed = closed;
     }
 
-    public synchronized String getIp() {
+    public String getIp() {
         return ip;
     }
 
-    public synchronized void setIp(String ip) {
-        this.ip = ip;
-    }
-
-    public synchronized Set<String> getUris() {
-        return uris;
+    public void setAddress(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            ip = ((InetSocketAddress) address).getAddress().getHostAddress();
+        } else {
+            ip = String.valueOf(address); // local and embedded channels
+        }
     }
 
-    public synchronized void addUri(String uri) {
-        if (uri != null) {
-            uris.add(uri);
+    /* Called from the channel's event loop only. */
+    public void addUri(String uri) {
+        if (uri == null) {
+            return;
+        }
+        int count = uriCount;
+        for (int i = 0; i < count; i++) {
+            if (uris[i].equals(uri)) {
+                return;
+            }
         }
+        if (count == MAX_URIS) {
+            ++otherUris;
+            return;
+        }
+        if (uris == null) {
+            uris = new String[MAX_URIS];
+        }
+        uris[count] = uri;
+        uriCount = count + 1;
     }
 
-    public synchronized long getBytesSent() {
+    public long getBytesSent() {
         return bytesSent;
     }
 
-    public synchronized void setBytesSent(long bytesSent) {
+    public void setBytesSent(long bytesSent) {
         this.bytesSent = bytesSent;
     }
 
+    /* Only called from the channel's event loop. */
+    public void addBytesSent(long bytes) {
+        bytesSent += bytes;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public void setStreamId(int streamId) {
+        this.streamId = streamId;
+    }
+
+    public ConnectionOutcome getOutcome() {
+        return outcome;
+    }
+
+    /* The first outcome is kept. */
+    public void setOutcome(ConnectionOutcome outcome) {
+        if (this.outcome == null) {
+            this.outcome = outcome;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -110,26 +177,11 @@ public class ConnectionInfo implements Serializable {
 
         ConnectionInfo that = (ConnectionInfo) o;
 
-        if (bytesReceived != that.bytesReceived) return false;
-        if (bytesSent != that.bytesSent) return false;
-        if (connectionId != that.connectionId) return false;
-        if (closed != null ? !closed.equals(that.closed) : that.closed != null) return false;
-        if (established != null ? !established.equals(that.established) : that.established != null) return false;
-        if (ip != null ? !ip.equals(that.ip) : that.ip != null) return false;
-        if (uris != null ? !uris.equals(that.uris) : that.uris != null) return false;
-
-        return true;
+        return connectionId == that.connectionId;
     }
 
     @Override
     public int hashCode() {
-        int result = (int) (connectionId ^ (connectionId >>> 32));
-        result = 31 * result + (established != null ? established.hashCode() : 0);
-        result = 31 * result + (closed != null ? closed.hashCode() : 0);
-        result = 31 * result + (ip != null ? ip.hashCode() : 0);
-        result = 31 * result + (uris != null ? uris.hashCode() : 0);
-        result = 31 * result + (int) (bytesSent ^ (bytesSent >>> 32));
-        result = 31 * result + (int) (bytesReceived ^ (bytesReceived >>> 32));
-        return result;
+        return (int) (connectionId ^ (connectionId >>> 32));
     }
 }
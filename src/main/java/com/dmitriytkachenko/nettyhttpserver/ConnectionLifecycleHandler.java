@@ -0,0 +1,209 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.util.ReferenceCountUtil;
+
+/* Tracks where a connection is in its lifecycle, with the reader and writer idle semantics of IdleStateHandler,
+and is reaped by ConnectionReaper when it overstays:
+- header timeout: the client has connected, or started the next request on a kept-alive connection,
+and has not sent a complete request head in time (slow clients);
+- idle timeout: a kept-alive connection has no request in flight and the client sends nothing;
+- write stall: the channel stays unwritable, because the client does not read its responses.
+While a request is being handled neither of the first two applies.
+After max requests per connection, the last response gets "Connection: close", the connection is closed after it
+and anything the client pipelined after that request is dropped.
+When the connection switches to HTTP/2 the handler stays on it, with active streams as the requests in flight:
+the header timeout applies until the first stream is opened, the idle timeout while no stream is active,
+and a connection which times out, or has opened max streams, is closed with GOAWAY.
+*/
+public class ConnectionLifecycleHandler extends ChannelDuplexHandler {
+    private final ConnectionReaper reaper = ConnectionReaper.getInstance();
+    private final ConnectionInfo ci;
+    private final int maxRequests = reaper.getMaxRequestsPerConnection();
+    private ChannelHandlerContext ctx;
+    private ConnectionReaper.Sweep sweep;
+
+    private int inFlight; // requests whose responses have not been written yet
+    private int requests;
+    private int responses;
+    private boolean lastRequest; // max-th request is being read
+    private boolean draining; // max-th request has been read, the rest of input is dropped
+
+    /* Times are read from the sweep's clock. Bytes received when the connection became idle tell whether
+    the client has started its next request. */
+    private long idleSince;
+    private long idleBytes;
+    private long headStarted;
+    private boolean unwritable;
+    private long unwritableSince;
+    private ConnectionOutcome outcome;
+    private Http2FrameCodec http2; // null until the connection switches to HTTP/2
+
+    public ConnectionLifecycleHandler(ConnectionInfo ci) {
+        this.ci = ci;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (reaper.hasTimeouts()) {
+            sweep = reaper.register(ctx.executor(), this);
+            becomeIdle();
+        }
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        unregister();
+        ctx.fireChannelInactive();
+    }
+
+    /* Connection switched to another protocol. */
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        unregister();
+    }
+
+    private void unregister() {
+        if (sweep != null) {
+            sweep.unregister(this);
+            sweep = null;
+        }
+    }
+
+    /* Called from the loop of the channel when the frame codec is added, before the first stream is opened. */
+    void switchToHttp2(Http2FrameCodec frameCodec) {
+        http2 = frameCodec;
+        Http2Connection connection = frameCodec.connection();
+        inFlight = connection.numActiveStreams();
+        connection.addListener(new Http2ConnectionAdapter() {
+            @Override
+            public void onStreamActive(Http2Stream stream) {
+                inFlight++;
+                headStarted = 0;
+                if (++requests == maxRequests) {
+                    // Frame codec sends GOAWAY and closes the connection once its active streams are done.
+                    reaper.closing(ci, ConnectionOutcome.MAX_REQUESTS);
+                    ctx.close();
+                }
+            }
+
+            @Override
+            public void onStreamClosed(Http2Stream stream) {
+                if (--inFlight == 0 && sweep != null) {
+                    becomeIdle();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (draining) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (msg instanceof HttpRequest) {
+            inFlight++;
+            headStarted = 0;
+            if (++requests == maxRequests) {
+                lastRequest = true;
+                ctx.channel().config().setAutoRead(false);
+            }
+        }
+        if (lastRequest && msg instanceof LastHttpContent) {
+            draining = true;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        boolean continueResponse = msg instanceof HttpResponse && ((HttpResponse) msg).status().code() == 100;
+        if (msg instanceof HttpResponse && !continueResponse && ++responses == maxRequests) {
+            HttpUtil.setKeepAlive((HttpResponse) msg, false);
+        }
+        boolean last = msg instanceof LastHttpContent && !continueResponse;
+        if (last && --inFlight == 0 && sweep != null) {
+            becomeIdle();
+        }
+        ctx.write(msg, promise);
+        if (last && responses == maxRequests) {
+            reaper.closing(ci, ConnectionOutcome.MAX_REQUESTS);
+            ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        unwritable = !ctx.channel().isWritable();
+        if (unwritable && sweep != null) {
+            unwritableSince = sweep.now();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    private void becomeIdle() {
+        idleSince = sweep.now();
+        idleBytes = ci.getBytesReceived();
+        headStarted = 0;
+    }
+
+    /* Called by the sweep of the channel's loop; remembers the outcome for reap(). */
+    boolean isExpired(long now) {
+        long writeTimeout = reaper.getWriteTimeoutNanos();
+        if (writeTimeout > 0 && unwritable && now - unwritableSince >= writeTimeout) {
+            outcome = ConnectionOutcome.WRITE_STALL;
+            return true;
+        }
+        if (inFlight > 0 || draining) {
+            return false;
+        }
+        long headerTimeout = reaper.getHeaderTimeoutNanos();
+        // HTTP/2 clients send control frames, such as WINDOW_UPDATE and PING, on connections without streams,
+        // so bytes received tell nothing there: a stream is started only with its complete header block.
+        if (http2 == null && ci.getBytesReceived() != idleBytes) {
+            // Part of the next request head has arrived; its start is known to the precision of a tick.
+            if (headStarted == 0) {
+                headStarted = now;
+            }
+            outcome = ConnectionOutcome.HEADER_TIMEOUT;
+            return headerTimeout > 0 && now - headStarted >= headerTimeout;
+        }
+        if (requests == 0) {
+            // Client has connected and sent nothing yet.
+            outcome = ConnectionOutcome.HEADER_TIMEOUT;
+            return headerTimeout > 0 && now - idleSince >= headerTimeout;
+        }
+        long idleTimeout = reaper.getIdleTimeoutNanos();
+        outcome = ConnectionOutcome.IDLE_TIMEOUT;
+        return idleTimeout > 0 && now - idleSince >= idleTimeout;
+    }
+
+    void reap() {
+        reaper.closing(ci, outcome);
+        if (http2 != null && outcome == ConnectionOutcome.WRITE_STALL) {
+            // Closed below the frame codec, which would otherwise wait for active streams of a client that does not read.
+            ctx.pipeline().context(http2).close();
+        } else {
+            ctx.close(); // through the frame codec of HTTP/2, which sends GOAWAY first
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* Log of the last N connections: a fixed-capacity ring buffer which any number of threads append to without locks.
+Each append claims a sequence number and publishes its entry to slot (sequence % capacity) together with the sequence.
+An entry only replaces an older one: when the ring wraps, a writer preempted long enough to be lapped finds a newer
+entry in its slot and drops its own, so neither the entry nor the sequence of a slot ever goes back. Appends are O(1)
+and allocate one small holder.
+*/
+public class ConnectionLog {
+    private final int capacity;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicReferenceArray<Entry> entries;
+
+    public ConnectionLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    public void add(ConnectionInfo ci) {
+        long sequence = head.getAndIncrement();
+        int slot = (int) (sequence % capacity);
+        Entry entry = new Entry(sequence, ci);
+        Entry current;
+        do {
+            current = entries.get(slot);
+            if (current != null && current.sequence > sequence) {
+                return;
+            }
+        } while (!entries.compareAndSet(slot, current, entry));
+    }
+
+    /* Entries published before the call, oldest first. Entries overwritten while the snapshot is taken are skipped. */
+    public List<ConnectionInfo> snapshot() {
+        long end = head.get();
+        long start = Math.max(0, end - capacity);
+        List<ConnectionInfo> list = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = entries.get((int) (sequence % capacity));
+            if (entry != null && entry.sequence == sequence) {
+                list.add(entry.ci);
+            }
+        }
+        return list;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private static final class Entry {
+        final long sequence;
+        final ConnectionInfo ci;
+
+        Entry(long sequence, ConnectionInfo ci) {
+            this.sequence = sequence;
+            this.ci = ci;
+        }
+    }
+}
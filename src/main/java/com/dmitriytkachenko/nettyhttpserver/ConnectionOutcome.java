@@ -0,0 +1,20 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+/* Reasons for which the server closes a connection, recorded in its ConnectionInfo. */
+public enum ConnectionOutcome {
+    HEADER_TIMEOUT("header timeout"),
+    IDLE_TIMEOUT("idle timeout"),
+    WRITE_STALL("write stall"),
+    MAX_REQUESTS("max requests"),
+    RATE_LIMITED("rate limited");
+
+    private final String label;
+
+    ConnectionOutcome(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,131 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Closes connections which exceed the timeouts of ConnectionLifecycleHandler (0 disables a timeout).
+Instead of a timer task per channel, as IdleStateHandler arms, every event loop runs one periodic sweep
+over the connections it serves, and all of them which expired during the tick are closed in one batch.
+The sweep also keeps a clock of the loop, which handlers read instead of System.nanoTime(),
+so timeouts are precise to a tick.
+*/
+public class ConnectionReaper {
+    private static final ConnectionReaper INSTANCE = new ConnectionReaper();
+
+    private final ConcurrentHashMap<EventExecutor, Sweep> sweeps = new ConcurrentHashMap<>();
+    private final AtomicLongArray closed = new AtomicLongArray(ConnectionOutcome.values().length);
+    private volatile long headerTimeoutNanos;
+    private volatile long idleTimeoutNanos;
+    private volatile long writeTimeoutNanos;
+    private volatile int maxRequestsPerConnection;
+    private volatile long tickMillis = 1000;
+
+    private ConnectionReaper() { }
+
+    public static ConnectionReaper getInstance() {
+        return INSTANCE;
+    }
+
+    public void configure(long headerTimeoutMillis, long idleTimeoutMillis, long writeTimeoutMillis,
+                          int maxRequestsPerConnection, long tickMillis) {
+        headerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(headerTimeoutMillis);
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        this.tickMillis = Math.max(tickMillis, 1);
+    }
+
+    /* Whether channels need a ConnectionLifecycleHandler at all. */
+    public boolean isEnabled() {
+        return hasTimeouts() || maxRequestsPerConnection > 0;
+    }
+
+    public boolean hasTimeouts() {
+        return headerTimeoutNanos > 0 || idleTimeoutNanos > 0 || writeTimeoutNanos > 0;
+    }
+
+    public long getHeaderTimeoutNanos() {
+        return headerTimeoutNanos;
+    }
+
+    public long getIdleTimeoutNanos() {
+        return idleTimeoutNanos;
+    }
+
+    public long getWriteTimeoutNanos() {
+        return writeTimeoutNanos;
+    }
+
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    /* Sweeps are cancelled with their loops; this only forgets them. */
+    public void stop() {
+        sweeps.clear();
+    }
+
+    /* Number of connections closed by the server with the outcome so far. */
+    public long getClosed(ConnectionOutcome outcome) {
+        return closed.get(outcome.ordinal());
+    }
+
+    /* Records why the server closes the connection. */
+    public void closing(ConnectionInfo ci, ConnectionOutcome outcome) {
+        ci.setOutcome(outcome);
+        closed.incrementAndGet(outcome.ordinal());
+    }
+
+    /* Called from the loop of the handler's channel, which is the only thread that adds the loop's sweep. */
+    Sweep register(EventExecutor loop, ConnectionLifecycleHandler handler) {
+        Sweep sweep = sweeps.get(loop);
+        if (sweep == null) {
+            sweep = new Sweep();
+            sweeps.put(loop, sweep);
+            loop.scheduleAtFixedRate(sweep, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        }
+        sweep.handlers.add(handler);
+        return sweep;
+    }
+
+    /* Sweep of one event loop; all of its state is confined to the loop. */
+    final class Sweep implements Runnable {
+        private final Set<ConnectionLifecycleHandler> handlers = new HashSet<>();
+        private final List<ConnectionLifecycleHandler> expired = new ArrayList<>();
+        private long now = System.nanoTime();
+
+        long now() {
+            return now;
+        }
+
+        void unregister(ConnectionLifecycleHandler handler) {
+            handlers.remove(handler);
+        }
+
+        @Override
+        public void run() {
+            now = System.nanoTime();
+            for (ConnectionLifecycleHandler handler : handlers) {
+                if (handler.isExpired(now)) {
+                    expired.add(handler);
+                }
+            }
+            if (expired.isEmpty()) {
+                return;
+            }
+            // Closing fires channelInactive, which unregisters the handler, so they are closed after the iteration.
+            for (ConnectionLifecycleHandler handler : expired) {
+                handler.reap();
+            }
+            expired.clear();
+            HttpServerStatistics.getInstance().markModified();
+        }
+    }
+}
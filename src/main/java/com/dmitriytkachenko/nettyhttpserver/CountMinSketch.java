@@ -0,0 +1,47 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Approximate counts in constant memory. An estimate never undercounts and, with probability 1 - delta,
+overcounts by no more than epsilon * total count. Rows are indexed with double hashing of one 64-bit hash.
+*/
+public class CountMinSketch {
+    private final int depth;
+    private final int width;
+    private final AtomicLongArray counts;
+
+    public CountMinSketch(double epsilon, double delta) {
+        if (epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1) {
+            throw new IllegalArgumentException("epsilon and delta must be in (0, 1)");
+        }
+        width = (int) Math.ceil(Math.E / epsilon);
+        depth = (int) Math.ceil(Math.log(1 / delta));
+        counts = new AtomicLongArray(width * depth);
+    }
+
+    /* Returns the estimate of the key's count after adding it. */
+    public long add(long hash) {
+        return add(hash, 1);
+    }
+
+    public long add(long hash, long count) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts.addAndGet(index(hash, row), count));
+        }
+        return estimate;
+    }
+
+    public long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts.get(index(hash, row)));
+        }
+        return estimate;
+    }
+
+    private int index(long hash, int row) {
+        int h = (int) hash + row * (int) (hash >>> 32);
+        return row * width + (h & Integer.MAX_VALUE) % width;
+    }
+}
@@ -0,0 +1,138 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/* Writes responses after a delay. Delays are kept in a hashed timing wheel (O(1) insertion and cancellation)
+instead of event loops' scheduled task queues. Responses which expire in one tick are handed to each event loop
+as a single batch task, so a tick costs one task submission per event loop rather than one per response.
+*/
+public class DeferredResponseScheduler {
+    private static final DeferredResponseScheduler INSTANCE = new DeferredResponseScheduler();
+    private static final long DEFAULT_TICK_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private HashedWheelTimer timer;
+    private final ConcurrentHashMap<EventExecutor, Batch> batches = new ConcurrentHashMap<>();
+
+    private DeferredResponseScheduler() { }
+
+    public static DeferredResponseScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /* Longer ticks mean fewer timer wake-ups but coarser delays. */
+    public synchronized void start(long tickMillis) {
+        if (timer == null) {
+            timer = new HashedWheelTimer(new DefaultThreadFactory("deferred-responses", true),
+                    tickMillis, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        }
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            for (Timeout timeout : timer.stop()) {
+                ((DeferredResponse) timeout.task()).response.release();
+            }
+            timer = null;
+        }
+    }
+
+    /* Responses which are waiting for their delay to expire. */
+    public synchronized long getPendingResponses() {
+        return timer == null ? 0 : timer.pendingTimeouts();
+    }
+
+    private synchronized Timer timer() {
+        if (timer == null) {
+            start(DEFAULT_TICK_MILLIS);
+        }
+        return timer;
+    }
+
+    /* Response is written as it is now; the caller must cancel the returned response when its channel closes. */
+    public DeferredResponse schedule(ChannelHandlerContext ctx, FullHttpResponse response, ResponseWriter writer,
+                                     long delay, TimeUnit unit) {
+        DeferredResponse deferred = new DeferredResponse(ctx, response, writer);
+        deferred.timeout = timer().newTimeout(deferred, delay, unit);
+        return deferred;
+    }
+
+    public interface ResponseWriter {
+        /* Called from the channel's event loop. */
+        void write(DeferredResponse deferred, ChannelHandlerContext ctx, FullHttpResponse response);
+    }
+
+    public final class DeferredResponse implements TimerTask {
+        private final ChannelHandlerContext ctx;
+        private final FullHttpResponse response;
+        private final ResponseWriter writer;
+        private volatile Timeout timeout;
+
+        private DeferredResponse(ChannelHandlerContext ctx, FullHttpResponse response, ResponseWriter writer) {
+            this.ctx = ctx;
+            this.response = response;
+            this.writer = writer;
+        }
+
+        /* Runs in the timer thread. */
+        @Override
+        public void run(Timeout timeout) {
+            EventExecutor executor = ctx.executor();
+            Batch batch = batches.get(executor);
+            if (batch == null) {
+                batch = batches.computeIfAbsent(executor, Batch::new);
+            }
+            batch.add(this);
+        }
+
+        public void cancel() {
+            if (timeout != null && timeout.cancel()) {
+                response.release();
+            }
+        }
+
+        private void write() {
+            writer.write(this, ctx, response);
+        }
+    }
+
+    /* Responses expired for one event loop, drained by a single task. */
+    private static final class Batch implements Runnable {
+        private final EventExecutor executor;
+        private final Queue<DeferredResponse> expired = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Batch(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        private void add(DeferredResponse deferred) {
+            expired.add(deferred);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            scheduled.set(false);
+            DeferredResponse deferred;
+            while ((deferred = expired.poll()) != null) {
+                deferred.write();
+            }
+        }
+    }
+}
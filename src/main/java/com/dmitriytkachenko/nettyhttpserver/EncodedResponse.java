@@ -0,0 +1,96 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.util.Map;
+
+/* Response without a body whose bytes, as sent on a kept-alive HTTP/1.1 connection, are encoded once by its Template
+and written by Http1ServerCodec as they are. Until then it is a regular response: handlers may change its headers
+and HTTP/2 streams encode it as usual, so the bytes are only used while the headers are still the ones they were
+encoded with, completed by the response sequencer with "Connection: keep-alive".
+*/
+public class EncodedResponse extends DefaultFullHttpResponse {
+    private final Template template;
+
+    private EncodedResponse(Template template) {
+        super(HttpVersion.HTTP_1_1, template.status, Unpooled.EMPTY_BUFFER);
+        headers().set(template.headers);
+        this.template = template;
+    }
+
+    /* Bytes of the response to write, or null if its headers differ from the encoded ones. Names of the template
+    are distinct, so with one more header than the template, each of them and Connection have a single value. */
+    ByteBuf encoded() {
+        HttpHeaders headers = headers();
+        if (headers.size() != template.names.length + 1
+                || !HttpHeaderValues.KEEP_ALIVE.contentEqualsIgnoreCase(headers.get(HttpHeaderNames.CONNECTION))) {
+            return null;
+        }
+        for (int i = 0; i < template.names.length; i++) {
+            if (!template.values[i].equals(headers.get(template.names[i]))) {
+                return null;
+            }
+        }
+        return template.encoded.duplicate();
+    }
+
+    /* Status and headers of responses, encoded like HttpResponseEncoder does. The bytes are a heap buffer which
+    is never released, so the template can be dropped while its responses are still being written.
+    The headers are copied with Content-Length added; the caller's are left as they are. */
+    public static final class Template {
+        private final HttpResponseStatus status;
+        private final HttpHeaders headers;
+        private final String[] names;
+        private final String[] values;
+        private final ByteBuf encoded;
+
+        public Template(HttpResponseStatus status, HttpHeaders headers) {
+            this.status = status;
+            this.headers = new DefaultHttpHeaders().set(headers).set(HttpHeaderNames.CONTENT_LENGTH, 0);
+            names = new String[this.headers.size()];
+            values = new String[names.length];
+            ByteBuf buf = Unpooled.buffer();
+            writeAscii(buf, HttpVersion.HTTP_1_1.text());
+            buf.writeByte(' ');
+            writeAscii(buf, status.toString());
+            writeCrlf(buf);
+            int i = 0;
+            for (Map.Entry<String, String> header : this.headers) {
+                names[i] = header.getKey();
+                values[i++] = header.getValue();
+                writeHeader(buf, header.getKey(), header.getValue());
+            }
+            writeHeader(buf, HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+            writeCrlf(buf);
+            encoded = Unpooled.unreleasableBuffer(buf);
+        }
+
+        public EncodedResponse newResponse() {
+            return new EncodedResponse(this);
+        }
+
+        private static void writeHeader(ByteBuf buf, CharSequence name, CharSequence value) {
+            writeAscii(buf, name);
+            buf.writeByte(':').writeByte(' ');
+            writeAscii(buf, value);
+            writeCrlf(buf);
+        }
+
+        private static void writeAscii(ByteBuf buf, CharSequence s) {
+            buf.writeCharSequence(s, CharsetUtil.US_ASCII);
+        }
+
+        private static void writeCrlf(ByteBuf buf) {
+            buf.writeByte('\r').writeByte('\n');
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import io.netty.util.concurrent.ThreadProperties;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/* Measures how long tasks wait in event loops' queues: a probe task is submitted to every loop periodically,
+and the time between its submission and execution is the queue latency of that loop.
+A probe which has not run yet counts as well, so a stalled loop shows its growing latency.
+Every interval the pending tasks and queue latency of each loop are emitted as a JFR event, and a loop whose probe
+has waited longer than the stall threshold is reported once per stall, with the stack trace of its thread,
+which shows the task that blocks it. Route handlers which hold their loop longer than the slow handler threshold
+are emitted as JFR events too (0 disables either threshold).
+*/
+public class EventLoopMonitor {
+    private static final EventLoopMonitor INSTANCE = new EventLoopMonitor();
+
+    private ScheduledExecutorService executor;
+    private final ConcurrentHashMap<EventExecutor, Probe> probes = new ConcurrentHashMap<>();
+    private volatile long stallThresholdNanos;
+    private volatile long slowHandlerNanos;
+
+    private EventLoopMonitor() { }
+
+    public static EventLoopMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    public void configure(long stallThresholdMillis, long slowHandlerMillis) {
+        stallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(stallThresholdMillis);
+        slowHandlerNanos = TimeUnit.MILLISECONDS.toNanos(slowHandlerMillis);
+    }
+
+    /* Loops are numbered in the order of the group, as in /metrics. */
+    public synchronized void start(EventExecutorGroup group, long intervalMillis) {
+        int index = 0;
+        for (Iterator<EventExecutor> it = group.iterator(); it.hasNext(); index++) {
+            probes.putIfAbsent(it.next(), new Probe(index));
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("event-loop-monitor", true));
+            executor.scheduleAtFixedRate(this::probe, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        probes.clear();
+    }
+
+    /* An exception would cancel the periodic task, so it is only printed. */
+    private void probe() {
+        long stallThreshold = stallThresholdNanos;
+        probes.forEach((loop, probe) -> {
+            try {
+                long latency = probe.getLatencyNanos();
+                if (loop instanceof SingleThreadEventExecutor) {
+                    JfrEvents.loopSample(probe.index, ((SingleThreadEventExecutor) loop).pendingTasks(), latency);
+                }
+                if (stallThreshold > 0 && latency >= stallThreshold) {
+                    probe.reportStall(loop, latency);
+                }
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+            probe.submit(loop);
+        });
+    }
+
+    /* 0 for loops which are not monitored. */
+    public long getQueueLatencyNanos(EventExecutor loop) {
+        Probe probe = probes.get(loop);
+        return probe == null ? 0 : probe.getLatencyNanos();
+    }
+
+    /* Queue latencies of the probes which have run on the loop, null if the loop is not monitored. */
+    public LatencyHistogram getQueueLatencies(EventExecutor loop) {
+        Probe probe = probes.get(loop);
+        return probe == null ? null : probe.latencies;
+    }
+
+    /* Number of stalls reported for the loop. */
+    public long getStalls(EventExecutor loop) {
+        Probe probe = probes.get(loop);
+        return probe == null ? 0 : probe.stalls;
+    }
+
+    /* Called by measured routes on their event loop with the time the handler took. */
+    void handlerCompleted(RouteMetrics route, long nanos) {
+        long threshold = slowHandlerNanos;
+        if (threshold > 0 && nanos >= threshold) {
+            JfrEvents.slowHandler(route.getRoute(), nanos);
+        }
+    }
+
+    private static final class Probe implements Runnable {
+        private final int index;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private volatile long submitted; // 0 when no probe is waiting
+        private volatile long latency;
+        /* Written by the monitor thread only. */
+        private volatile long stalls;
+        private long reportedSubmission;
+
+        Probe(int index) {
+            this.index = index;
+        }
+
+        void submit(EventExecutor loop) {
+            if (submitted != 0 || loop.isShuttingDown()) {
+                return; // previous probe is still queued
+            }
+            submitted = System.nanoTime();
+            try {
+                loop.execute(this);
+            } catch (RejectedExecutionException e) {
+                submitted = 0; // loop has been shut down in the meantime
+            }
+        }
+
+        @Override
+        public void run() {
+            latency = System.nanoTime() - submitted;
+            submitted = 0;
+            latencies.record(latency / 1000);
+        }
+
+        long getLatencyNanos() {
+            long pendingSince = submitted;
+            return pendingSince == 0 ? latency : Math.max(latency, System.nanoTime() - pendingSince);
+        }
+
+        /* A stall is reported when it is noticed, while the loop is still blocked. */
+        void reportStall(EventExecutor loop, long blockedNanos) {
+            long pendingSince = submitted;
+            if (pendingSince == 0 || pendingSince == reportedSubmission || !(loop instanceof SingleThreadEventExecutor)) {
+                return; // probe has run in the meantime, or this stall has been reported already
+            }
+            ThreadProperties thread = ((SingleThreadEventExecutor) loop).threadProperties();
+            StackTraceElement[] elements = thread.stackTrace();
+            if (submitted != pendingSince) {
+                return; // loop got to the probe while the stack was taken, so the stack may not show what blocked it
+            }
+            reportedSubmission = pendingSince;
+            stalls++;
+            StringBuilder stackTrace = new StringBuilder();
+            for (StackTraceElement element : elements) {
+                stackTrace.append("\tat ").append(element).append('\n');
+            }
+            System.err.println("Event loop " + index + " (" + thread.name() + ") has been blocked for "
+                    + TimeUnit.NANOSECONDS.toMillis(blockedNanos) + " ms:\n" + stackTrace);
+            JfrEvents.loopStall(index, thread.name(), blockedNanos, stackTrace.toString());
+        }
+    }
+}
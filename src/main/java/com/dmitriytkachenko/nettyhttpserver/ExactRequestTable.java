@@ -0,0 +1,69 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/* Keeps an exact counter for every key. Memory grows with the number of distinct keys. */
+public class ExactRequestTable implements RequestTable {
+    private final ConcurrentHashMap<String, RequestCounter> counters = new ConcurrentHashMap<>();
+
+    /* Keys changed since the last drain; a key is queued once until it is drained. */
+    private final ConcurrentLinkedQueue<String> changedKeys = new ConcurrentLinkedQueue<>();
+    private volatile boolean trackChanges = false;
+
+    @Override
+    public void register(String key, long timestamp) {
+        RequestCounter counter = getCounter(key);
+        counter.register(timestamp);
+        if (trackChanges && counter.markChanged()) {
+            changedKeys.add(key);
+        }
+    }
+
+    /* Plain get first: computeIfAbsent locks the bin even when the key is present. */
+    private RequestCounter getCounter(String key) {
+        RequestCounter counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new RequestCounter());
+    }
+
+    @Override
+    public void trackChanges() {
+        trackChanges = true;
+    }
+
+    @Override
+    public void drainChanges(EntryVisitor visitor) {
+        String key;
+        while ((key = changedKeys.poll()) != null) {
+            RequestCounter counter = counters.get(key);
+            long delta = counter.persist();
+            if (delta > 0) {
+                visitor.visit(key, delta, counter.getPersistedLastRequest());
+            }
+        }
+    }
+
+    @Override
+    public void forEachPersisted(EntryVisitor visitor) {
+        counters.forEach((key, counter) -> {
+            if (counter.getPersistedCount() > 0) {
+                visitor.visit(key, counter.getPersistedCount(), counter.getPersistedLastRequest());
+            }
+        });
+    }
+
+    @Override
+    public void restore(String key, long count, long lastRequest) {
+        getCounter(key).restore(count, lastRequest);
+    }
+
+    @Override
+    public long getNumberOfKeys() {
+        return counters.size();
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        counters.forEach((key, counter) -> visitor.visit(key, counter.getCount(), counter.getLastRequest()));
+    }
+}
@@ -0,0 +1,20 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+final class Hashing {
+    private Hashing() { }
+
+    /* 64-bit FNV-1a over chars followed by MurmurHash3 finalizer, so that every bit of the result is well mixed. */
+    static long hash64(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
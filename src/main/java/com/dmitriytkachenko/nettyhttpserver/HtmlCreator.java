@@ -1,11 +1,21 @@
 package com.dmitriytkachenko.nettyhttpserver;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
 import java.util.List;
 
+/* Page is encoded to UTF-8 straight into the buffer as it is built, without intermediate Strings. */
 public class HtmlCreator {
-    private StringBuilder html = new StringBuilder();
+    private final Html html;
 
     public HtmlCreator() {
+        this(Unpooled.buffer());
+    }
+
+    public HtmlCreator(ByteBuf buffer) {
+        html = new Html(buffer);
         html.append("<!DOCTYPE html>");
         html.append("<head>");
         html.append("<meta charset=\"utf-8\">");
@@ -48,6 +58,11 @@ public class HtmlCreator {
         return this;
     }
 
+    public HtmlCreator addNumber(long number) {
+        html.append(number);
+        return this;
+    }
+
     public HtmlCreator closeParagraph() {
         html.append("</p>");
         return this;
@@ -98,8 +113,28 @@ public class HtmlCreator {
         return this;
     }
 
-    public String getHtml() {
+    /* Ownership of the buffer passes to the caller. */
+    public ByteBuf getHtml() {
         html.append("</body>");
-        return html.toString();
+        return html.buffer;
+    }
+
+    /* Writes chained appends to the buffer, mirroring StringBuilder. */
+    private static final class Html {
+        private final ByteBuf buffer;
+
+        private Html(ByteBuf buffer) {
+            this.buffer = buffer;
+        }
+
+        private Html append(CharSequence s) {
+            ByteBufUtil.writeUtf8(buffer, s);
+            return this;
+        }
+
+        private Html append(long number) {
+            ByteBufUtil.writeAscii(buffer, Long.toString(number));
+            return this;
+        }
     }
 }
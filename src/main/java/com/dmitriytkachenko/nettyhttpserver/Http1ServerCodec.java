@@ -0,0 +1,40 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.CombinedChannelDuplexHandler;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+
+/* HTTP/1 request decoder and response encoder in one handler, which HttpServerUpgradeHandler removes when
+the connection upgrades to HTTP/2. Unlike HttpServerCodec, it writes EncodedResponses as they were encoded.
+HEAD requests are not served (501 has no body), so the codec does not track request methods.
+*/
+public class Http1ServerCodec extends CombinedChannelDuplexHandler<HttpRequestDecoder, HttpResponseEncoder>
+        implements HttpServerUpgradeHandler.SourceCodec {
+
+    public Http1ServerCodec() {
+        super(new HttpRequestDecoder(), new Encoder());
+    }
+
+    @Override
+    public void upgradeFrom(ChannelHandlerContext ctx) {
+        ctx.pipeline().remove(this);
+    }
+
+    private static final class Encoder extends HttpResponseEncoder {
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof EncodedResponse) {
+                ByteBuf encoded = ((EncodedResponse) msg).encoded();
+                if (encoded != null) {
+                    ctx.write(encoded, promise); // response has no body to release
+                    return;
+                }
+            }
+            super.write(ctx, msg, promise);
+        }
+    }
+}
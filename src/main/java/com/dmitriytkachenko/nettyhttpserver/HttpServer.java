@@ -1,55 +1,179 @@
 package com.dmitriytkachenko.nettyhttpserver;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.traffic.GlobalTrafficShapingHandler;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public final class HttpServer {
-    private int port;
+    private HttpServerConfig config;
 
     public void run() throws Exception {
+        HttpServerStatistics.getInstance().setConnectionLogCapacity(config.getConnectionLogSize());
+        if (config.isBoundedStatistics()) {
+            HttpServerStatistics.getInstance().useBoundedTables(config.getTopK(), config.getSketchEpsilon(),
+                    config.getSketchDelta(), config.getHllPrecision());
+        }
+
+        AdmissionController admission = AdmissionController.getInstance();
+        admission.configure(config.getMaxConnections(), config.getMaxConnectionsPerIp(),
+                config.getRequestsPerSecond(), config.getRequestBurst());
+        admission.start();
+        ConnectionReaper.getInstance().configure(config.getHeaderTimeoutMillis(), config.getIdleTimeoutMillis(),
+                config.getWriteTimeoutMillis(), config.getMaxRequestsPerConnection(), config.getReaperTickMillis());
+        RedirectCache.getInstance().configure(config.getRedirectCacheSize());
+
+        Transport transport = Transport.select(config.isEpoll());
+
+        /* Several acceptors can share one port only with SO_REUSEPORT, which is available with epoll. */
+        int acceptors = transport.isEpoll() ? config.getAcceptors() : 1;
+
+        StatisticsJournal journal = null;
+        if (config.getJournalDirectory() != null) {
+            journal = new StatisticsJournal(Paths.get(config.getJournalDirectory()), config.getJournalCompactionBytes());
+            journal.start(config.getJournalFlushMillis()); // restores statistics saved by the previous run
+        }
+        if (config.getAccessLogDirectory() != null) {
+            AccessLog.getInstance().start(Paths.get(config.getAccessLogDirectory()), config.getAccessLogSegmentBytes(),
+                    config.getAccessLogSegments(), config.getAccessLogQueue(), config.getAccessLogFlushMillis());
+        }
+
         // Configure the server.
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1); // 1 port - 1 thread
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(acceptors);
+        EventLoopGroup workerGroup = transport.newEventLoopGroup(config.getWorkers());
+        GlobalTrafficShapingHandler trafficShaper = createTrafficShaper(workerGroup);
+        ByteBufAllocator allocator = createAllocator();
+        CompressionPolicy compressionPolicy = config.isCompression() ? CompressionPolicy.fromConfig(config) : null;
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .childHandler(new HttpServerInitializer());
+                    .channel(transport.serverChannelClass())
+                    .option(ChannelOption.SO_BACKLOG, config.getBacklog())
+                    .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay())
+                    .childOption(ChannelOption.ALLOCATOR, allocator)
+                    .childHandler(new HttpServerInitializer(compressionPolicy,
+                            trafficShaper, createHttp2Settings()));
+            setWriteBufferWaterMarks(b);
+            if (admission.isConnectionLimited()) {
+                b.handler(new ConnectionAdmissionHandler()); // runs in the boss loop before accepted channels are registered
+            }
+            if (acceptors > 1) {
+                b.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
 
             // Bind and start to accept incoming connections.
-            Channel ch = b.bind(port).sync().channel();
-            ch.closeFuture().sync();
+            // Each bind registers a new server channel with the next boss loop, so accepts are spread across them.
+            ServerMetrics.getInstance().setEventLoops(workerGroup);
+            ServerMetrics.getInstance().setAllocator(allocator);
+            StatusPage.getInstance().start(config.getStatusRefreshMillis(), compressionPolicy);
+            DeferredResponseScheduler.getInstance().start(config.getTimerTickMillis());
+            HttpServerHandler.setHelloDelayMillis(config.getHelloDelayMillis());
+            if (HttpServerHandler.hasBlockingRoutes()) {
+                BlockingExecutor.getInstance().start(config.isBlockingVirtualThreads(), config.getBlockingThreads(), config.getBlockingQueue());
+            }
+            long monitorInterval = config.getLoopMonitorIntervalMillis();
+            if (config.isCompression() && config.getCompressionLoadThresholdMillis() > 0) {
+                // Load-aware compression needs latencies fresher than its threshold.
+                long loadInterval = Math.max(1, config.getCompressionLoadThresholdMillis() / 2);
+                monitorInterval = monitorInterval > 0 ? Math.min(monitorInterval, loadInterval) : loadInterval;
+            }
+            EventLoopMonitor.getInstance().configure(config.getLoopStallMillis(), config.getSlowHandlerMillis());
+            if (monitorInterval > 0) {
+                EventLoopMonitor.getInstance().start(workerGroup, monitorInterval);
+            }
+
+            List<Channel> serverChannels = new ArrayList<>();
+            for (int i = 0; i < acceptors; i++) {
+                serverChannels.add(b.bind(config.getPort()).sync().channel());
+            }
+            for (Channel ch : serverChannels) {
+                ch.closeFuture().sync();
+            }
         } finally {
-            HttpServerStatistics.getInstance().serialize(); // save statistics
+            StatusPage.getInstance().stop();
+            DeferredResponseScheduler.getInstance().stop();
+            BlockingExecutor.getInstance().stop();
+            EventLoopMonitor.getInstance().stop();
+            ConnectionReaper.getInstance().stop();
+            admission.stop();
+            if (trafficShaper != null) {
+                trafficShaper.release();
+            }
             bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully().syncUninterruptibly();
+            if (journal != null) {
+                journal.stop(); // saves statistics, including requests completed during the graceful shutdown
+            }
+            AccessLog.getInstance().stop(); // writes records of the last responses
         }
     }
 
-    public static void main(String[] args) throws Exception {
-        int port;
-        if (args.length > 0) {
-            port = Integer.parseInt(args[0]);
-        } else {
-            port = 8888;
+    private ByteBufAllocator createAllocator() {
+        return config.isPooledAllocator() ? new PooledByteBufAllocator(config.isPreferDirect())
+                : new UnpooledByteBufAllocator(config.isPreferDirect());
+    }
+
+    /* Bandwidth limits are shared by all connections; without limits there is no shaping handler at all. */
+    private GlobalTrafficShapingHandler createTrafficShaper(EventLoopGroup workerGroup) {
+        if (config.getReadLimit() <= 0 && config.getWriteLimit() <= 0) {
+            return null;
         }
-        new HttpServer(port).run();
+        return new GlobalTrafficShapingHandler(workerGroup.next(), config.getWriteLimit(), config.getReadLimit(),
+                config.getTrafficCheckIntervalMillis());
     }
 
-    public HttpServer() { }
+    private Http2Settings createHttp2Settings() {
+        if (!config.isHttp2()) {
+            return null;
+        }
+        return Http2Settings.defaultSettings()
+                .maxConcurrentStreams(config.getHttp2MaxConcurrentStreams())
+                .initialWindowSize(config.getHttp2InitialWindowSize());
+    }
+
+    /* Both water marks are set at once, so they are validated against each other rather than against the defaults. */
+    private void setWriteBufferWaterMarks(ServerBootstrap b) {
+        b.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                new WriteBufferWaterMark(config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new HttpServer(HttpServerConfig.fromArgs(args)).run();
+    }
+
+    public HttpServer() {
+        this(new HttpServerConfig());
+    }
 
     public HttpServer(int port) {
-        this.port = port;
+        this();
+        config.setPort(port);
+    }
+
+    public HttpServer(HttpServerConfig config) {
+        this.config = config;
     }
 
     public int getPort() {
-        return port;
+        return config.getPort();
     }
 
     public void setPort(int port) {
-        this.port = port;
+        config.setPort(port);
+    }
+
+    public HttpServerConfig getConfig() {
+        return config;
     }
 }
@@ -0,0 +1,630 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+/* Server settings. Defaults keep the routes of the original server, but turn on HTTP/2, selective compression,
+connection timeouts and other changes which README lists.
+Command line: [port] [--option=value ...], for example: 8888 --epoll --workers=8 --acceptors=4
+*/
+public class HttpServerConfig {
+    private int port = 8888;
+
+    /* Use native epoll transport (Linux only). Falls back to NIO when it is not available. */
+    private boolean epoll = false;
+
+    /* Number of acceptor loops bound to the same port with SO_REUSEPORT (epoll only). */
+    private int acceptors = 1;
+
+    /* Number of worker event loops, 0 means Netty default (2 * number of cores). */
+    private int workers = 0;
+
+    private boolean tcpNoDelay = true;
+    private int backlog = 1024;
+    private int writeBufferLowWaterMark = 32 * 1024;
+    private int writeBufferHighWaterMark = 64 * 1024;
+
+    /* Pooled allocator recycles buffers instead of leaving them to GC; direct buffers are written to the socket without a copy. */
+    private boolean pooledAllocator = true;
+    private boolean preferDirect = true;
+
+    /* How often the cached /status page is rebuilt from statistics. */
+    private long statusRefreshMillis = 1000;
+
+    /* Tick of the timing wheel which delays /hello responses, and the delay. */
+    private long timerTickMillis = 100;
+    private long helloDelayMillis = 10000;
+
+    /* Number of last connections shown in /status. */
+    private int connectionLogSize = 16;
+
+    /* Statistics journal: directory of its files (null disables it, which is the default), how often changes are written
+    and log size after which it is compacted into a snapshot. */
+    private String journalDirectory = null;
+    private long journalFlushMillis = 1000;
+    private long journalCompactionBytes = 16 * 1024 * 1024;
+
+    /* Executor of blocking routes: virtual thread per request (Java 21+), otherwise a bounded pool. */
+    private boolean blockingVirtualThreads = false;
+    private int blockingThreads = 16;
+    private int blockingQueue = 1024;
+
+    /* Memory-bounded statistics: only top-K IPs and redirect destinations are listed, other figures are estimated.
+    Counts are overestimated by at most sketchEpsilon * total with probability 1 - sketchDelta. */
+    private boolean boundedStatistics = false;
+    private int topK = 100;
+    private double sketchEpsilon = 0.001;
+    private double sketchDelta = 0.01;
+    private int hllPrecision = 14;
+
+    /* Response compression: bodies smaller than the minimum size or of other content types than the listed prefixes
+    are not compressed; route levels are path:level pairs (0 turns compression off for the path).
+    When event loop queue latency exceeds the load threshold, the fastest level is used, and above twice the threshold
+    nothing is compressed (0 disables this). */
+    private boolean compression = true;
+    private int compressionLevel = 6;
+    private int compressionMinSize = 1024;
+    private String compressionTypes = "text/,application/json,application/openmetrics-text,application/javascript,application/xml,image/svg+xml";
+    private String compressionRouteLevels = "";
+    private long compressionLoadThresholdMillis = 0;
+
+    /* Admission control (0 is no limit): open connections in total and per client IP,
+    and request rate per client IP, which may be exceeded by a burst of requests. */
+    private int maxConnections = 0;
+    private int maxConnectionsPerIp = 0;
+    private double requestsPerSecond = 0;
+    private int requestBurst = 100;
+
+    /* Bandwidth limits of the whole server in bytes per second (0 is no limit), checked at the given interval. */
+    private long readLimit = 0;
+    private long writeLimit = 0;
+    private long trafficCheckIntervalMillis = 1000;
+
+    /* Connection lifecycle (0 disables a limit): time to send a complete request head after connecting
+    or starting the next request, time a kept-alive connection may stay idle, time the channel may stay unwritable,
+    and number of requests served per connection. Expired connections are closed every reaper tick. */
+    private long headerTimeoutMillis = 20000;
+    private long idleTimeoutMillis = 60000;
+    private long writeTimeoutMillis = 60000;
+    private int maxRequestsPerConnection = 0;
+    private long reaperTickMillis = 1000;
+
+    /* Cleartext HTTP/2 by upgrade or prior knowledge: streams a client may have open at once
+    and initial flow control window of each stream in bytes. */
+    private boolean http2 = true;
+    private int http2MaxConcurrentStreams = 1000;
+    private int http2InitialWindowSize = 65535;
+
+    /* Event loop instrumentation: how often loops are probed (0 disables probing unless load-aware compression needs it),
+    how long a loop may stay blocked before its stack trace is logged, and how long a route handler may hold its loop
+    before it is emitted as a JFR event (0 disables either). */
+    private long loopMonitorIntervalMillis = 100;
+    private long loopStallMillis = 500;
+    private long slowHandlerMillis = 10;
+
+    /* Encoded 302 responses kept by every worker thread for the destinations it redirects to most recently (0 disables). */
+    private int redirectCacheSize = 1024;
+
+    /* Binary access log: directory of its segments (null disables it), segment size, number of segments kept
+    (0 keeps all), records every worker thread may queue before further ones are dropped, and how often they are written. */
+    private String accessLogDirectory = null;
+    private long accessLogSegmentBytes = 64 * 1024 * 1024;
+    private int accessLogSegments = 16;
+    private int accessLogQueue = 16384;
+    private long accessLogFlushMillis = 100;
+
+    public static HttpServerConfig fromArgs(String[] args) {
+        HttpServerConfig config = new HttpServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                config.setPort(Integer.parseInt(arg));
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            switch (name) {
+                case "port": config.setPort(Integer.parseInt(value)); break;
+                case "epoll": config.setEpoll(Boolean.parseBoolean(value)); break;
+                case "acceptors": config.setAcceptors(Integer.parseInt(value)); break;
+                case "workers": config.setWorkers(Integer.parseInt(value)); break;
+                case "tcp-nodelay": config.setTcpNoDelay(Boolean.parseBoolean(value)); break;
+                case "backlog": config.setBacklog(Integer.parseInt(value)); break;
+                case "write-buffer-low": config.setWriteBufferLowWaterMark(Integer.parseInt(value)); break;
+                case "write-buffer-high": config.setWriteBufferHighWaterMark(Integer.parseInt(value)); break;
+                case "pooled-allocator": config.setPooledAllocator(Boolean.parseBoolean(value)); break;
+                case "prefer-direct": config.setPreferDirect(Boolean.parseBoolean(value)); break;
+                case "status-refresh-ms": config.setStatusRefreshMillis(Long.parseLong(value)); break;
+                case "bounded-statistics": config.setBoundedStatistics(Boolean.parseBoolean(value)); break;
+                case "top-k": config.setTopK(Integer.parseInt(value)); break;
+                case "sketch-epsilon": config.setSketchEpsilon(Double.parseDouble(value)); break;
+                case "sketch-delta": config.setSketchDelta(Double.parseDouble(value)); break;
+                case "hll-precision": config.setHllPrecision(Integer.parseInt(value)); break;
+                case "timer-tick-ms": config.setTimerTickMillis(Long.parseLong(value)); break;
+                case "hello-delay-ms": config.setHelloDelayMillis(Long.parseLong(value)); break;
+                case "connection-log-size": config.setConnectionLogSize(Integer.parseInt(value)); break;
+                case "journal-dir": config.setJournalDirectory(value.isEmpty() || value.equals("none") ? null : value); break;
+                case "journal-flush-ms": config.setJournalFlushMillis(Long.parseLong(value)); break;
+                case "journal-compaction-bytes": config.setJournalCompactionBytes(Long.parseLong(value)); break;
+                case "blocking-virtual-threads": config.setBlockingVirtualThreads(Boolean.parseBoolean(value)); break;
+                case "blocking-threads": config.setBlockingThreads(Integer.parseInt(value)); break;
+                case "blocking-queue": config.setBlockingQueue(Integer.parseInt(value)); break;
+                case "compression": config.setCompression(Boolean.parseBoolean(value)); break;
+                case "compression-level": config.setCompressionLevel(Integer.parseInt(value)); break;
+                case "compression-min-size": config.setCompressionMinSize(Integer.parseInt(value)); break;
+                case "compression-types": config.setCompressionTypes(value); break;
+                case "compression-route-levels": config.setCompressionRouteLevels(value); break;
+                case "compression-load-threshold-ms": config.setCompressionLoadThresholdMillis(Long.parseLong(value)); break;
+                case "max-connections": config.setMaxConnections(Integer.parseInt(value)); break;
+                case "max-connections-per-ip": config.setMaxConnectionsPerIp(Integer.parseInt(value)); break;
+                case "requests-per-second": config.setRequestsPerSecond(Double.parseDouble(value)); break;
+                case "request-burst": config.setRequestBurst(Integer.parseInt(value)); break;
+                case "read-limit": config.setReadLimit(Long.parseLong(value)); break;
+                case "write-limit": config.setWriteLimit(Long.parseLong(value)); break;
+                case "traffic-check-interval-ms": config.setTrafficCheckIntervalMillis(Long.parseLong(value)); break;
+                case "header-timeout-ms": config.setHeaderTimeoutMillis(Long.parseLong(value)); break;
+                case "idle-timeout-ms": config.setIdleTimeoutMillis(Long.parseLong(value)); break;
+                case "write-timeout-ms": config.setWriteTimeoutMillis(Long.parseLong(value)); break;
+                case "max-requests-per-connection": config.setMaxRequestsPerConnection(Integer.parseInt(value)); break;
+                case "reaper-tick-ms": config.setReaperTickMillis(Long.parseLong(value)); break;
+                case "http2": config.setHttp2(Boolean.parseBoolean(value)); break;
+                case "http2-max-concurrent-streams": config.setHttp2MaxConcurrentStreams(Integer.parseInt(value)); break;
+                case "http2-initial-window-size": config.setHttp2InitialWindowSize(Integer.parseInt(value)); break;
+                case "redirect-cache-size": config.setRedirectCacheSize(Integer.parseInt(value)); break;
+                case "loop-monitor-interval-ms": config.setLoopMonitorIntervalMillis(Long.parseLong(value)); break;
+                case "loop-stall-ms": config.setLoopStallMillis(Long.parseLong(value)); break;
+                case "slow-handler-ms": config.setSlowHandlerMillis(Long.parseLong(value)); break;
+                case "access-log-dir": config.setAccessLogDirectory(value.isEmpty() || value.equals("none") ? null : value); break;
+                case "access-log-segment-bytes": config.setAccessLogSegmentBytes(Long.parseLong(value)); break;
+                case "access-log-segments": config.setAccessLogSegments(Integer.parseInt(value)); break;
+                case "access-log-queue": config.setAccessLogQueue(Integer.parseInt(value)); break;
+                case "access-log-flush-ms": config.setAccessLogFlushMillis(Long.parseLong(value)); break;
+                default: throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (config.getWriteBufferLowWaterMark() > config.getWriteBufferHighWaterMark()) {
+            throw new IllegalArgumentException("write-buffer-low must not be greater than write-buffer-high");
+        }
+        if (config.getAcceptors() < 1) {
+            throw new IllegalArgumentException("acceptors must be positive");
+        }
+        return config;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public void setEpoll(boolean epoll) {
+        this.epoll = epoll;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public boolean isPooledAllocator() {
+        return pooledAllocator;
+    }
+
+    public void setPooledAllocator(boolean pooledAllocator) {
+        this.pooledAllocator = pooledAllocator;
+    }
+
+    public boolean isPreferDirect() {
+        return preferDirect;
+    }
+
+    public void setPreferDirect(boolean preferDirect) {
+        this.preferDirect = preferDirect;
+    }
+
+    public long getStatusRefreshMillis() {
+        return statusRefreshMillis;
+    }
+
+    public void setStatusRefreshMillis(long statusRefreshMillis) {
+        this.statusRefreshMillis = statusRefreshMillis;
+    }
+
+    public boolean isBoundedStatistics() {
+        return boundedStatistics;
+    }
+
+    public void setBoundedStatistics(boolean boundedStatistics) {
+        this.boundedStatistics = boundedStatistics;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    public double getSketchEpsilon() {
+        return sketchEpsilon;
+    }
+
+    public void setSketchEpsilon(double sketchEpsilon) {
+        this.sketchEpsilon = sketchEpsilon;
+    }
+
+    public double getSketchDelta() {
+        return sketchDelta;
+    }
+
+    public void setSketchDelta(double sketchDelta) {
+        this.sketchDelta = sketchDelta;
+    }
+
+    public int getHllPrecision() {
+        return hllPrecision;
+    }
+
+    public void setHllPrecision(int hllPrecision) {
+        this.hllPrecision = hllPrecision;
+    }
+
+    public long getTimerTickMillis() {
+        return timerTickMillis;
+    }
+
+    public void setTimerTickMillis(long timerTickMillis) {
+        this.timerTickMillis = timerTickMillis;
+    }
+
+    public long getHelloDelayMillis() {
+        return helloDelayMillis;
+    }
+
+    public void setHelloDelayMillis(long helloDelayMillis) {
+        this.helloDelayMillis = helloDelayMillis;
+    }
+
+    public int getConnectionLogSize() {
+        return connectionLogSize;
+    }
+
+    public void setConnectionLogSize(int connectionLogSize) {
+        this.connectionLogSize = connectionLogSize;
+    }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public long getJournalFlushMillis() {
+        return journalFlushMillis;
+    }
+
+    public void setJournalFlushMillis(long journalFlushMillis) {
+        this.journalFlushMillis = journalFlushMillis;
+    }
+
+    public long getJournalCompactionBytes() {
+        return journalCompactionBytes;
+    }
+
+    public void setJournalCompactionBytes(long journalCompactionBytes) {
+        this.journalCompactionBytes = journalCompactionBytes;
+    }
+
+    public boolean isBlockingVirtualThreads() {
+        return blockingVirtualThreads;
+    }
+
+    public void setBlockingVirtualThreads(boolean blockingVirtualThreads) {
+        this.blockingVirtualThreads = blockingVirtualThreads;
+    }
+
+    public int getBlockingThreads() {
+        return blockingThreads;
+    }
+
+    public void setBlockingThreads(int blockingThreads) {
+        this.blockingThreads = blockingThreads;
+    }
+
+    public int getBlockingQueue() {
+        return blockingQueue;
+    }
+
+    public void setBlockingQueue(int blockingQueue) {
+        this.blockingQueue = blockingQueue;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public void setCompressionMinSize(int compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    public String getCompressionTypes() {
+        return compressionTypes;
+    }
+
+    public void setCompressionTypes(String compressionTypes) {
+        this.compressionTypes = compressionTypes;
+    }
+
+    public String getCompressionRouteLevels() {
+        return compressionRouteLevels;
+    }
+
+    public void setCompressionRouteLevels(String compressionRouteLevels) {
+        this.compressionRouteLevels = compressionRouteLevels;
+    }
+
+    public long getCompressionLoadThresholdMillis() {
+        return compressionLoadThresholdMillis;
+    }
+
+    public void setCompressionLoadThresholdMillis(long compressionLoadThresholdMillis) {
+        this.compressionLoadThresholdMillis = compressionLoadThresholdMillis;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerIp() {
+        return maxConnectionsPerIp;
+    }
+
+    public void setMaxConnectionsPerIp(int maxConnectionsPerIp) {
+        this.maxConnectionsPerIp = maxConnectionsPerIp;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public int getRequestBurst() {
+        return requestBurst;
+    }
+
+    public void setRequestBurst(int requestBurst) {
+        this.requestBurst = requestBurst;
+    }
+
+    public long getReadLimit() {
+        return readLimit;
+    }
+
+    public void setReadLimit(long readLimit) {
+        this.readLimit = readLimit;
+    }
+
+    public long getWriteLimit() {
+        return writeLimit;
+    }
+
+    public void setWriteLimit(long writeLimit) {
+        this.writeLimit = writeLimit;
+    }
+
+    public long getTrafficCheckIntervalMillis() {
+        return trafficCheckIntervalMillis;
+    }
+
+    public void setTrafficCheckIntervalMillis(long trafficCheckIntervalMillis) {
+        this.trafficCheckIntervalMillis = trafficCheckIntervalMillis;
+    }
+
+    public long getHeaderTimeoutMillis() {
+        return headerTimeoutMillis;
+    }
+
+    public void setHeaderTimeoutMillis(long headerTimeoutMillis) {
+        this.headerTimeoutMillis = headerTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    public void setWriteTimeoutMillis(long writeTimeoutMillis) {
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    public int getMaxRequestsPerConnection() {
+        return maxRequestsPerConnection;
+    }
+
+    public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+    }
+
+    public long getReaperTickMillis() {
+        return reaperTickMillis;
+    }
+
+    public void setReaperTickMillis(long reaperTickMillis) {
+        this.reaperTickMillis = reaperTickMillis;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    public void setHttp2MaxConcurrentStreams(int http2MaxConcurrentStreams) {
+        this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+    }
+
+    public int getHttp2InitialWindowSize() {
+        return http2InitialWindowSize;
+    }
+
+    public void setHttp2InitialWindowSize(int http2InitialWindowSize) {
+        this.http2InitialWindowSize = http2InitialWindowSize;
+    }
+
+    public int getRedirectCacheSize() {
+        return redirectCacheSize;
+    }
+
+    public void setRedirectCacheSize(int redirectCacheSize) {
+        this.redirectCacheSize = redirectCacheSize;
+    }
+
+    public long getLoopMonitorIntervalMillis() {
+        return loopMonitorIntervalMillis;
+    }
+
+    public void setLoopMonitorIntervalMillis(long loopMonitorIntervalMillis) {
+        this.loopMonitorIntervalMillis = loopMonitorIntervalMillis;
+    }
+
+    public long getLoopStallMillis() {
+        return loopStallMillis;
+    }
+
+    public void setLoopStallMillis(long loopStallMillis) {
+        this.loopStallMillis = loopStallMillis;
+    }
+
+    public long getSlowHandlerMillis() {
+        return slowHandlerMillis;
+    }
+
+    public void setSlowHandlerMillis(long slowHandlerMillis) {
+        this.slowHandlerMillis = slowHandlerMillis;
+    }
+
+    public String getAccessLogDirectory() {
+        return accessLogDirectory;
+    }
+
+    public void setAccessLogDirectory(String accessLogDirectory) {
+        this.accessLogDirectory = accessLogDirectory;
+    }
+
+    public long getAccessLogSegmentBytes() {
+        return accessLogSegmentBytes;
+    }
+
+    public void setAccessLogSegmentBytes(long accessLogSegmentBytes) {
+        this.accessLogSegmentBytes = accessLogSegmentBytes;
+    }
+
+    public int getAccessLogSegments() {
+        return accessLogSegments;
+    }
+
+    public void setAccessLogSegments(int accessLogSegments) {
+        this.accessLogSegments = accessLogSegments;
+    }
+
+    public int getAccessLogQueue() {
+        return accessLogQueue;
+    }
+
+    public void setAccessLogQueue(int accessLogQueue) {
+        this.accessLogQueue = accessLogQueue;
+    }
+
+    public long getAccessLogFlushMillis() {
+        return accessLogFlushMillis;
+    }
+
+    public void setAccessLogFlushMillis(long accessLogFlushMillis) {
+        this.accessLogFlushMillis = accessLogFlushMillis;
+    }
+}
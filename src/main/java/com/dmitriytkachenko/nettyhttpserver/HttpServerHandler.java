@@ -1,222 +1,285 @@
 package com.dmitriytkachenko.nettyhttpserver;
 
-import io.netty.buffer.Unpooled;
-import io.netty.channel.ChannelFutureListener;
+import com.dmitriytkachenko.nettyhttpserver.DeferredResponseScheduler.DeferredResponse;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
-import io.netty.util.CharsetUtil;
+import io.netty.handler.codec.http2.Http2StreamChannel;
 
-import java.time.LocalDateTime;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class HttpServerHandler extends SimpleChannelInboundHandler<Object> {
+    private static volatile long helloDelayMillis = TimeUnit.SECONDS.toMillis(10);
+    private static final Router<HttpServerHandler> ROUTER = Router.<HttpServerHandler>builder()
+            /* Show "hello" page at http://domain/hello or http://domain/hello/ */
+            .get("/hello", false, measured("/hello", HttpServerHandler::serveHelloPage))
+            /* Show "status" page at http://domain/status or http://domain/status/ */
+            .get("/status", false, measured("/status", HttpServerHandler::serveStatusPage))
+            /* Metrics in OpenMetrics text format at http://domain/metrics */
+            .get("/metrics", false, measured("/metrics", HttpServerHandler::serveMetrics))
+            /* Redirect to http://<url> at http://domain/redirect?url=<url>
+            Example: http://domain/redirect?url=google.com will redirect to http://google.com
+             */
+            .get("/redirect", true, measured("/redirect", HttpServerHandler::serveRedirect))
+            /* Routes which block have to be wrapped with blocking(...), so that they run on BlockingExecutor.
+            Routes wrapped with measured(...) show up in /metrics. */
+            .notFound(measured("not_found", HttpServerHandler::send404NotFound))
+            .notImplemented(measured("not_implemented", HttpServerHandler::send501NotImplemented))
+            .build();
+
+    /* Request which is being dispatched and its sequence number among pipelined requests. */
     private HttpRequest request;
-    /* Buffer that stores the response content */
-    private final StringBuilder responseBuffer = new StringBuilder();
+    private long sequence;
+    private final ResponseSequencer sequencer;
     private final HttpServerStatistics statistics = HttpServerStatistics.getInstance();
+    private final ResponseCache responseCache = ResponseCache.getInstance();
+    private final RedirectCache redirectCache = RedirectCache.getInstance();
+    private final DeferredResponseScheduler scheduler = DeferredResponseScheduler.getInstance();
+    /* Delayed responses which have not been written yet, in the order they are due; cancelled when the channel closes.
+    All of them have the same delay, so the one which fires is the head of the queue. */
+    private final Deque<DeferredResponse> pendingResponses = new ArrayDeque<>();
+    private final BlockingExecutor blockingExecutor = BlockingExecutor.getInstance();
     private final ConnectionInfo ci;
+    private final Router<HttpServerHandler> router;
 
     public HttpServerHandler(ConnectionInfo ci) {
-        this.ci = ci;
+        this(ci, ROUTER);
     }
 
-    @Override
-    public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
-        super.channelRegistered(ctx);
-        statistics.addChannel(ctx.channel());
+    HttpServerHandler(ConnectionInfo ci, Router<HttpServerHandler> router) {
+        this.ci = ci;
+        this.sequencer = new ResponseSequencer(ci);
+        this.router = router;
     }
 
-    class UrlMapper {
-        private HttpMethod method;
-        private String[] pathComponents;
-        private Map<String, List<String>> params;
-        private ChannelHandlerContext ctx;
-
-        public UrlMapper(ChannelHandlerContext ctx) {
-            method = request.getMethod();
-            pathComponents = request.getUri().replaceFirst("^/", "").split("/"); // remove first slash and split
-            pathComponents[pathComponents.length - 1] = pathComponents[pathComponents.length - 1].split("\\?")[0]; // remove attributes from the last component
-            params = new QueryStringDecoder(request.getUri()).parameters();
-            this.ctx = ctx;
-        }
+    /* Delay of /hello responses. */
+    public static void setHelloDelayMillis(long millis) {
+        helloDelayMillis = millis;
+    }
 
-        public void callAppropriateMethod() {
+    /* BlockingExecutor is only started if some route needs it. */
+    static boolean hasBlockingRoutes() {
+        return hasBlockingRoutes(ROUTER);
+    }
 
-            if (method != HttpMethod.GET) {
-                send501NotImplemented(ctx);
-                return;
-            }
+    static boolean hasBlockingRoutes(Router<HttpServerHandler> router) {
+        return router.hasRouteMatching(HttpServerHandler::isBlocking);
+    }
 
-            if (pathComponents.length == 1) {
-                /* Show "hello" page at http://domain/hello or http://domain/hello/ */
-                if (pathComponents[0].equals("hello") && params.size() == 0) {
-                    serveHelloPage(ctx);
-                    return;
-                }
-
-                /* Show "status" page at http://domain/status or http://domain/status/ */
-                if (pathComponents[0].equals("status") && params.size() == 0) {
-                    serveStatusPage(ctx);
-                    return;
-                }
-
-                /* Redirect to http://<url> at http://domain/redirect?url=<url>
-                Example: http://domain/redirect?url=google.com will redirect to http://google.com
-                 */
-                if (pathComponents[0].equals("redirect") && params.size() == 1 && params.get("url").size() == 1) {
-                    sendRedirect(ctx, params.get("url").get(0));
-                    return;
-                }
-            }
+    private static boolean isBlocking(Router.Route<HttpServerHandler> route) {
+        return route instanceof MeasuredRoute ? isBlocking(((MeasuredRoute) route).route) : route instanceof OffloadedRoute;
+    }
 
-            send404NotFound(ctx);
+    @Override
+    public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
+        super.channelRegistered(ctx);
+        if (!(ctx.channel() instanceof Http2StreamChannel)) { // streams are not connections
+            statistics.addChannel(ctx.channel());
         }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        pendingResponses.forEach(DeferredResponse::cancel);
+        pendingResponses.clear();
+        sequencer.release();
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) {
-        ctx.flush();
-        /* Writing response to request is over. Record request in statistics */
-        statistics.registerRequestFromIp(HttpServerStatistics.getIpFromChannel(ctx.channel()), LocalDateTime.now());
-        if (request != null) {
-            ci.addUri(request.getUri());
-        }
+        /* All responses which became ready while processing this read batch go out in one flush. */
+        sequencer.readComplete(ctx);
     }
 
-    private void writeResponse(HttpObject currentObj, ChannelHandlerContext ctx) {
+    /* A request which failed to decode leaves the decoder discarding the rest of the input, so its connection is closed. */
+    private void writeResponse(ChannelHandlerContext ctx, FullHttpResponse response) {
         // Decide whether to close the connection or not.
-        boolean keepAlive = HttpHeaders.isKeepAlive(request);
-        // Build the response object.
-        FullHttpResponse response = new DefaultFullHttpResponse(
-                HttpVersion.HTTP_1_1, currentObj.getDecoderResult().isSuccess()? HttpResponseStatus.OK : HttpResponseStatus.BAD_REQUEST,
-                Unpooled.copiedBuffer(responseBuffer.toString(), CharsetUtil.UTF_8));
-
-        response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/html; charset=utf-8");
-
-        if (keepAlive) {
-            // Add 'Content-Length' header only for a keep-alive connection.
-            response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, response.content().readableBytes());
-            // Add keep alive header as per:
-            // - http://www.w3.org/Protocols/HTTP/1.1/draft-ietf-http-v11-spec-01.html#Connection
-            response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
-        }
-
-        // Write the response.
-        ctx.write(response);
-
-        if (!keepAlive) {
-            // If keep-alive is off, close the connection once the content is fully written.
-            ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
-        } else {
-            ctx.flush();
-        }
+        sequencer.complete(ctx, sequence, response, HttpUtil.isKeepAlive(request) && request.decoderResult().isSuccess());
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+        sequencer.readStarted();
         if (msg instanceof HttpRequest) {
             this.request = (HttpRequest) msg;
+            this.sequence = sequencer.nextSequence(ctx);
 
-            if (HttpHeaders.is100ContinueExpected(request)) {
+            if (HttpUtil.is100ContinueExpected(request)) {
                 send100Continue(ctx);
             }
 
             // call method based on URI
-            new UrlMapper(ctx).callAppropriateMethod();
+            router.match(request.method(), request.uri()).handle(this, ctx);
+
+            /* Record request in statistics */
+            statistics.registerRequestFromIp(ci.getIp(), System.currentTimeMillis());
+            ci.addUri(request.uri());
         }
     }
 
-    private void send100Continue(ChannelHandlerContext ctx) {
-        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE);
-        ctx.write(response);
+    /* Responses of the route are counted and timed in its RouteMetrics, as is the time its handler holds the event loop
+    (bodies streamed later by ChunkedWriteHandler are not included). */
+    static Router.Route<HttpServerHandler> measured(String name, Router.Route<HttpServerHandler> route) {
+        return new MeasuredRoute(ServerMetrics.getInstance().route(name), route);
     }
 
-    private void send501NotImplemented(ChannelHandlerContext ctx) {
-        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_IMPLEMENTED);
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE); // close connection
+    /* Keeps the route it wraps, so that blocking routes can be found among measured ones. */
+    private static final class MeasuredRoute implements Router.Route<HttpServerHandler> {
+        private final RouteMetrics metrics;
+        private final Router.Route<HttpServerHandler> route;
+        private final EventLoopMonitor monitor = EventLoopMonitor.getInstance();
+
+        private MeasuredRoute(RouteMetrics metrics, Router.Route<HttpServerHandler> route) {
+            this.metrics = metrics;
+            this.route = route;
+        }
+
+        @Override
+        public void handle(HttpServerHandler handler, ChannelHandlerContext ctx) {
+            handler.sequencer.setRoute(handler.sequence, metrics);
+            long start = System.nanoTime();
+            route.handle(handler, ctx);
+            long handlerTime = System.nanoTime() - start;
+            metrics.recordHandlerTime(handlerTime);
+            monitor.handlerCompleted(metrics, handlerTime);
+        }
     }
 
-    private void sendRedirect(ChannelHandlerContext ctx, String destinationUri) {
-        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.FOUND);
-        response.headers().set(HttpHeaders.Names.LOCATION, "http://" + destinationUri);
-        statistics.registerRedirect(destinationUri);
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    /* Route which may block. It gets the request it serves, because handler fields change while it runs on another thread. */
+    interface BlockingRoute {
+        FullHttpResponse handle(HttpServerHandler handler, HttpRequest request) throws Exception;
     }
 
-    private void send404NotFound(ChannelHandlerContext ctx) {
-        HtmlCreator htmlCreator = new HtmlCreator();
-        htmlCreator.setTitle("Not Found");
-        htmlCreator.setH1("404 Not Found");
-        htmlCreator.addParagraph("The requested URL " + request.getUri() + " was not found on this server.");
+    static Router.Route<HttpServerHandler> blocking(BlockingRoute route) {
+        return new OffloadedRoute(route);
+    }
 
-        responseBuffer.setLength(0); // clear StringBuilder
-        responseBuffer.append(htmlCreator.getHtml());
+    private static final class OffloadedRoute implements Router.Route<HttpServerHandler> {
+        private final BlockingRoute route;
 
-        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND,
-                Unpooled.copiedBuffer(responseBuffer.toString(), CharsetUtil.UTF_8));
-        response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/html; charset=utf-8");
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        private OffloadedRoute(BlockingRoute route) {
+            this.route = route;
+        }
+
+        @Override
+        public void handle(HttpServerHandler handler, ChannelHandlerContext ctx) {
+            handler.offload(ctx, route);
+        }
     }
 
-    private void serveHelloPage(ChannelHandlerContext ctx) {
-        HtmlCreator htmlCreator = new HtmlCreator();
-        htmlCreator.setTitle("Hello");
-        htmlCreator.setH1("Hello World!");
+    /* Runs the route on BlockingExecutor and completes its response back on the channel's event loop.
+    Reading from the channel is suspended until all its blocking routes complete, so a client cannot queue
+    unlimited work; if the executor is saturated, the request is answered with 503. */
+    private void offload(ChannelHandlerContext ctx, BlockingRoute route) {
+        HttpRequest request = this.request;
+        long sequence = this.sequence;
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        sequencer.suspendReading(ctx);
+        boolean submitted = blockingExecutor.submit(() -> {
+            FullHttpResponse response;
+            try {
+                response = route.handle(this, request);
+            } catch (Throwable t) {
+                t.printStackTrace();
+                response = responseCache.getInternalServerError().newResponse();
+            }
+            FullHttpResponse result = response;
+            ctx.executor().execute(() -> completeBlocking(ctx, sequence, result, keepAlive));
+        });
+        if (!submitted) {
+            completeBlocking(ctx, sequence, responseCache.getServiceUnavailable().newResponse(), false);
+        }
+    }
 
-        responseBuffer.setLength(0);
-        responseBuffer.append(htmlCreator.getHtml());
+    private void completeBlocking(ChannelHandlerContext ctx, long sequence, FullHttpResponse response, boolean keepAlive) {
+        sequencer.resumeReading(ctx);
+        sequencer.complete(ctx, sequence, response, keepAlive);
+    }
 
-        ctx.executor().schedule(() -> writeResponse(request, ctx), 10, TimeUnit.SECONDS);
+    private void send100Continue(ChannelHandlerContext ctx) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE);
+        ctx.write(response);
     }
 
-    private void serveStatusPage(ChannelHandlerContext ctx) {
-        HtmlCreator htmlCreator = new HtmlCreator();
-        htmlCreator.setTitle("Statistics");
-        htmlCreator.setH1("Statistics");
-        htmlCreator.openParagraph().addBold("Total requests: ").addText("" + statistics.getNumberOfRequests()).closeParagraph();
-        htmlCreator.openParagraph().addBold("Unique requests: ").addText("" + statistics.getNumberOfUniqueRequests()).closeParagraph();
-        htmlCreator.openParagraph().addBold("Open connections: ").addText("" + statistics.getConnectionCount()).closeParagraph();
-
-        htmlCreator.addHorizontalLine();
-        htmlCreator.addH2("Requests");
-        if (statistics.getIpRequestsAsStrings().size() == 0) {
-            htmlCreator.addParagraph("No completed requests.");
-        } else {
-            List<String> requestsTableHeaders = Arrays.asList("IP", "Requests", "Date and time of last request");
-            htmlCreator.addTableWithHeaders(requestsTableHeaders);
-            statistics.getIpRequestsAsStrings().forEach(htmlCreator::addRowToTable);
-            htmlCreator.endTable();
-        }
+    private void send501NotImplemented(ChannelHandlerContext ctx) {
+        FullHttpResponse response = responseCache.getNotImplemented().newResponse();
+        writeResponse(ctx, response);
+    }
 
-        htmlCreator.addHorizontalLine();
-        htmlCreator.addH2("Redirects");
-        if (statistics.getRedirectsAsStrings().size() == 0) {
-            htmlCreator.addParagraph("No redirects.");
+    /* Query string is only decoded for this route. */
+    private void serveRedirect(ChannelHandlerContext ctx) {
+        Map<String, List<String>> params = new QueryStringDecoder(request.uri()).parameters();
+        List<String> url = params.get("url");
+        if (params.size() == 1 && url != null && url.size() == 1) {
+            sendRedirect(ctx, url.get(0));
         } else {
-            List<String> redirectsTableHeaders = Arrays.asList("Destination URL", "Number of redirects");
-            htmlCreator.addTableWithHeaders(redirectsTableHeaders);
-            statistics.getRedirectsAsStrings().forEach(htmlCreator::addRowToTable);
-            htmlCreator.endTable();
+            send404NotFound(ctx);
         }
+    }
 
-        htmlCreator.addHorizontalLine();
-        htmlCreator.addH2("Connections");
-        List<String> connectionsTableHeaders = Arrays.asList("IP", "URIs", "Established", "Closed",
-                "Sent (bytes)", "Received (bytes)", "Speed (bytes/sec)");
-        htmlCreator.addTableWithHeaders(connectionsTableHeaders);
-        statistics.getConnectionsAsStrings().forEach(htmlCreator::addRowToTable);
-        htmlCreator.endTable();
+    /* Destinations which are not valid header values, such as those with line breaks, are not found. */
+    private void sendRedirect(ChannelHandlerContext ctx, String destinationUri) {
+        FullHttpResponse response;
+        try {
+            response = redirectCache.newRedirect(destinationUri);
+        } catch (IllegalArgumentException e) {
+            send404NotFound(ctx);
+            return;
+        }
+        statistics.registerRedirect(destinationUri);
+        writeResponse(ctx, response);
+    }
 
-        htmlCreator.openStyle().centerHeadings().styleTables().closeStyle();
+    private void send404NotFound(ChannelHandlerContext ctx) {
+        FullHttpResponse response = responseCache.newNotFound(ctx.alloc(), request.uri());
+        writeResponse(ctx, response);
+    }
 
-        responseBuffer.setLength(0);
-        responseBuffer.append(htmlCreator.getHtml());
+    private void serveHelloPage(ChannelHandlerContext ctx) {
+        FullHttpResponse response = responseCache.getHello().newResponse();
+        /* Request fields are overwritten by the next request on this connection, so they are captured now. */
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        long sequence = this.sequence;
+        pendingResponses.add(scheduler.schedule(ctx, response, (deferred, c, r) -> {
+            pendingResponses.removeFirstOccurrence(deferred);
+            sequencer.complete(c, sequence, r, keepAlive);
+        }, helloDelayMillis, TimeUnit.MILLISECONDS));
+    }
 
-        writeResponse(request, ctx);
+    /* Page is streamed with chunked transfer encoding, gzipped in advance if the client accepts it; HTTP/1.0 clients, which do not support it,
+    get the page delimited by closing the connection. */
+    private void serveStatusPage(ChannelHandlerContext ctx) {
+        HttpResponseStatus status = request.decoderResult().isSuccess() ? HttpResponseStatus.OK : HttpResponseStatus.BAD_REQUEST;
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, StatusPage.CONTENT_TYPE);
+        StatusPage.Page page = StatusPage.getInstance().getPage();
+        boolean gzip = page.hasGzip() && StatusPage.acceptsGzip(request);
+        if (gzip) {
+            response.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+        }
+        if (page.hasGzip()) {
+            response.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        }
+        boolean chunked = request.protocolVersion().equals(HttpVersion.HTTP_1_1);
+        if (chunked) {
+            HttpUtil.setTransferEncodingChunked(response, true);
+        }
+        sequencer.complete(ctx, sequence, response, new HttpChunkedInput(page.newInput(gzip)),
+                chunked && HttpUtil.isKeepAlive(request));
     }
 
+    /* Rendered on every request, straight into the response buffer. */
+    private void serveMetrics(ChannelHandlerContext ctx) {
+        ByteBuf content = ctx.alloc().directBuffer();
+        ServerMetrics.getInstance().render(content);
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, ServerMetrics.CONTENT_TYPE);
+        writeResponse(ctx, response);
+    }
 }
@@ -1,26 +1,193 @@
 package com.dmitriytkachenko.nettyhttpserver;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpContentCompressor;
-import io.netty.handler.codec.http.HttpRequestDecoder;
-import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.flow.FlowControlHandler;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.traffic.GlobalTrafficShapingHandler;
+import io.netty.util.AsciiString;
 
-import java.time.LocalDateTime;
+import java.util.List;
+
+/* Not bound to SocketChannel, so that the pipeline can also be built on an EmbeddedChannel.
+With HTTP/2 settings, a connection starts as HTTP/1.1 and switches to cleartext HTTP/2 (h2c) when the client
+sends the connection preface right away (prior knowledge) or asks for "Upgrade: h2c". After the switch
+the HTTP/1 handlers are removed from the connection, except the lifecycle handler which goes on reaping it,
+and every stream is a child channel with its own HTTP/1 handlers
+behind a codec which translates stream frames to HTTP objects, so routes serve streams as they serve requests.
+*/
+public class HttpServerInitializer extends ChannelInitializer<Channel> {
+    /* Handlers which serve HTTP/1 requests; a connection which switches to HTTP/2 does not need them. */
+    private static final String[] HTTP1_HANDLERS = {"admission", "compressor", "chunked", "flow", "handler"};
+    private static final int MAX_UPGRADE_REQUEST_SIZE = 64 * 1024;
+    private static final ByteBuf CONNECTION_PREFACE = Unpooled.unreleasableBuffer(Http2CodecUtil.connectionPrefaceBuf());
+
+    private final CompressionPolicy compressionPolicy;
+    private final GlobalTrafficShapingHandler trafficShaper;
+    private final Http2Settings http2Settings;
+    private final ChannelInitializer<Channel> streamInitializer = new ChannelInitializer<Channel>() {
+        @Override
+        protected void initChannel(Channel stream) throws Exception {
+            initStream((Http2StreamChannel) stream);
+        }
+    };
+
+    public HttpServerInitializer() {
+        this(true);
+    }
+
+    public HttpServerInitializer(boolean compression) {
+        this(compression ? CompressionPolicy.fromConfig(new HttpServerConfig()) : null);
+    }
+
+    public HttpServerInitializer(CompressionPolicy compressionPolicy) {
+        this(compressionPolicy, null);
+    }
+
+    public HttpServerInitializer(CompressionPolicy compressionPolicy, GlobalTrafficShapingHandler trafficShaper) {
+        this(compressionPolicy, trafficShaper, null);
+    }
+
+    /* Responses are not compressed when the policy is null. The traffic shaper, if any, is shared by all channels,
+    so its limits apply to the server as a whole. HTTP/2 is not offered when its settings are null. */
+    public HttpServerInitializer(CompressionPolicy compressionPolicy, GlobalTrafficShapingHandler trafficShaper,
+                                 Http2Settings http2Settings) {
+        this.compressionPolicy = compressionPolicy;
+        this.trafficShaper = trafficShaper;
+        this.http2Settings = http2Settings;
+    }
 
-public class HttpServerInitializer extends ChannelInitializer<SocketChannel> {
     @Override
-    protected void initChannel(SocketChannel sc) throws Exception {
+    protected void initChannel(Channel sc) throws Exception {
         ConnectionInfo ci = new ConnectionInfo();
-        ci.setIp(HttpServerStatistics.getIpFromChannel(sc));
-        ci.setEstablished(LocalDateTime.now());
+        ci.setAddress(sc.remoteAddress());
+        ci.setEstablished(System.currentTimeMillis());
         HttpServerStatistics.getInstance().addConnectionInfo(ci);
+        sc.attr(TrafficAccountingHandler.CONNECTION_INFO).set(ci);
         ChannelPipeline cp = sc.pipeline();
-        cp.addLast(new ChannelTrafficCounter(0, ci));
-        cp.addLast(new HttpRequestDecoder());
-        cp.addLast(new HttpResponseEncoder());
-        cp.addLast(new HttpContentCompressor());
+        if (trafficShaper != null) {
+            cp.addLast(trafficShaper);
+        }
+        cp.addLast(TrafficAccountingHandler.getInstance());
+        if (http2Settings != null) {
+            cp.addLast(new PriorKnowledgeDetector());
+        }
+        Http1ServerCodec codec = new Http1ServerCodec();
+        cp.addLast("codec", codec);
+        if (http2Settings != null) {
+            cp.addLast("upgrade", new HttpServerUpgradeHandler(codec, protocol -> {
+                if (!AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+                    return null;
+                }
+                Http2FrameCodec frameCodec = newHttp2FrameCodec();
+                return new Http2ServerUpgradeCodec(frameCodec, new SwitchToHttp2(frameCodec, false));
+            }, MAX_UPGRADE_REQUEST_SIZE));
+        }
+        if (AdmissionController.getInstance().isRateLimited()) {
+            cp.addLast("admission", new RequestAdmissionHandler());
+        }
+        if (ConnectionReaper.getInstance().isEnabled()) {
+            cp.addLast("lifecycle", new ConnectionLifecycleHandler(ci));
+        }
+        if (compressionPolicy != null) {
+            cp.addLast("compressor", new PolicyContentCompressor(compressionPolicy));
+        }
+        cp.addLast("chunked", new ChunkedWriteHandler()); // streamed bodies pass through the compressor as HTTP contents
+        cp.addLast("flow", new FlowControlHandler()); // holds decoded requests while the handler does not read
+        cp.addLast("handler", new HttpServerHandler(ci));
+    }
+
+    /* Streams are entries of the connection log of their own. HTTP/2 closes a stream once its response is sent,
+    and timeouts are watched by the lifecycle handler of the connection. */
+    private void initStream(Http2StreamChannel stream) {
+        ConnectionInfo ci = new ConnectionInfo();
+        ci.setAddress(stream.remoteAddress());
+        ci.setStreamId(stream.stream().id());
+        ci.setEstablished(System.currentTimeMillis());
+        HttpServerStatistics.getInstance().addConnectionInfo(ci);
+        stream.attr(TrafficAccountingHandler.CONNECTION_INFO).set(ci);
+        ChannelPipeline cp = stream.pipeline();
+        cp.addLast(TrafficAccountingHandler.getStreamInstance());
+        cp.addLast(new Http2StreamFrameToHttpObjectCodec(true));
+        if (AdmissionController.getInstance().isRateLimited()) {
+            cp.addLast(new RequestAdmissionHandler());
+        }
+        if (compressionPolicy != null) {
+            cp.addLast(new PolicyContentCompressor(compressionPolicy));
+        }
+        cp.addLast(new ChunkedWriteHandler());
         cp.addLast(new HttpServerHandler(ci));
     }
+
+    /* HPACK and flow control of streams are done by the frame codec. */
+    private Http2FrameCodec newHttp2FrameCodec() {
+        return Http2FrameCodecBuilder.forServer().initialSettings(http2Settings).build();
+    }
+
+    /* Switches the connection to HTTP/2 if it starts with the client connection preface,
+    otherwise passes the bytes on to the HTTP/1 codec. Like CleartextHttp2ServerUpgradeHandler,
+    which is bound to HttpServerCodec. */
+    private final class PriorKnowledgeDetector extends ByteToMessageDecoder {
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+            int length = Math.min(in.readableBytes(), CONNECTION_PREFACE.readableBytes());
+            if (!ByteBufUtil.equals(CONNECTION_PREFACE, CONNECTION_PREFACE.readerIndex(), in, in.readerIndex(), length)) {
+                ctx.pipeline().remove(this);
+            } else if (length == CONNECTION_PREFACE.readableBytes()) {
+                // Bytes read so far go to the frame codec when the detector is removed.
+                ctx.pipeline().addAfter(ctx.name(), null, new SwitchToHttp2(newHttp2FrameCodec(), true));
+                ctx.pipeline().remove(this);
+            }
+        }
+    }
+
+    /* Added to the connection when it switches to HTTP/2: removes HTTP/1 handlers, and with prior knowledge
+    also the HTTP/1 codec and adds the frame codec, which the upgrade handler does itself otherwise. */
+    private final class SwitchToHttp2 extends ChannelHandlerAdapter {
+        private final Http2FrameCodec frameCodec;
+        private final boolean priorKnowledge;
+
+        private SwitchToHttp2(Http2FrameCodec frameCodec, boolean priorKnowledge) {
+            this.frameCodec = frameCodec;
+            this.priorKnowledge = priorKnowledge;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+            ChannelPipeline cp = ctx.pipeline();
+            for (String name : HTTP1_HANDLERS) {
+                if (cp.get(name) != null) {
+                    cp.remove(name);
+                }
+            }
+            // Multiplexer looks the frame codec up in the pipeline when it is added.
+            if (priorKnowledge) {
+                cp.remove("codec");
+                cp.remove("upgrade");
+                cp.addBefore(ctx.name(), null, frameCodec);
+            }
+            ConnectionLifecycleHandler lifecycle = (ConnectionLifecycleHandler) cp.get("lifecycle");
+            if (lifecycle != null) {
+                lifecycle.switchToHttp2(frameCodec);
+            }
+            cp.addAfter(ctx.name(), null, new Http2MultiplexHandler(streamInitializer));
+            cp.remove(this);
+        }
+    }
 }
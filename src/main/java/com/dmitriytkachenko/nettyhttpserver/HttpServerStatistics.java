@@ -3,33 +3,33 @@ package com.dmitriytkachenko.nettyhttpserver;
 import io.netty.channel.Channel;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.util.concurrent.GlobalEventExecutor;
-import org.javatuples.Pair;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-import java.net.InetSocketAddress;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /* One pipeline per connection. Different pipelines can be run in different threads from worker thread pool.
 * Because of that, implementation of this class is thread-safe.
 * */
-public class HttpServerStatistics implements Serializable {
+public class HttpServerStatistics {
     private static final HttpServerStatistics INSTANCE = new HttpServerStatistics();
 
-    private ConcurrentHashMap<String, Pair<Long, LocalDateTime>> ipRequests = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, Long> redirects = new ConcurrentHashMap<>();
-    private List<ConnectionInfo> connections = Collections.synchronizedList(new ArrayList<>());
+    private RequestTable ipRequests = new ExactRequestTable();
+    private RequestTable redirects = new ExactRequestTable();
+    /* Kept separately so that the total can be read without reducing over ipRequests. */
+    private LongAdder totalRequests = new LongAdder();
+    private ConnectionLog connections = new ConnectionLog(16);
+
+    /* Incremented on every change, so that an unchanged snapshot does not have to be rebuilt. */
+    private LongAdder modifications = new LongAdder();
 
     /* Holds references to open channels (they remove themselves when they are closed). */
-    private transient DefaultChannelGroup channels  = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private DefaultChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
 
     private HttpServerStatistics() { }
 
@@ -37,39 +37,91 @@ public class HttpServerStatistics implements Serializable {
         return INSTANCE;
     }
 
-    public synchronized long getNumberOfRequests() {
-        return ipRequests != null && ipRequests.size() != 0 ? ipRequests.reduceValues(1, Pair::getValue0, Long::sum) : 0;
+    /* Switches to memory-bounded tables, which keep only the top-K keys and estimate the rest.
+    Has to be called before the server starts accepting connections. */
+    public void useBoundedTables(int topK, double epsilon, double delta, int hllPrecision) {
+        ipRequests = new BoundedRequestTable(topK, epsilon, delta, hllPrecision);
+        redirects = new BoundedRequestTable(topK, epsilon, delta, hllPrecision);
+    }
+
+    /* Has to be called before the server starts accepting connections. */
+    public void setConnectionLogCapacity(int capacity) {
+        connections = new ConnectionLog(capacity);
+    }
+
+    /* Forgets request counts, as if the server had just started; tests share the instance. */
+    void resetRequests() {
+        ipRequests = new ExactRequestTable();
+        redirects = new ExactRequestTable();
+        totalRequests.reset();
+        modifications.increment();
+    }
+
+    RequestTable getIpRequests() {
+        return ipRequests;
+    }
+
+    RequestTable getRedirects() {
+        return redirects;
+    }
+
+    /* Adds requests recovered from the journal. */
+    void restoreRequestsFromIp(String ip, long count, long lastRequest) {
+        ipRequests.restore(ip, count, lastRequest);
+        totalRequests.add(count);
+        modifications.increment();
+    }
+
+    void restoreRedirects(String destinationUrl, long count, long lastRequest) {
+        redirects.restore(destinationUrl, count, lastRequest);
+        modifications.increment();
+    }
+
+    public long getNumberOfRequests() {
+        return totalRequests.sum();
+    }
+
+    /* Timestamp is in epoch milliseconds. */
+    public void registerRequestFromIp(String ip, long timestamp) {
+        ipRequests.register(ip, timestamp);
+        totalRequests.increment();
+        modifications.increment();
+    }
+
+    public void registerRedirect(String destinationUrl) {
+        redirects.register(destinationUrl, System.currentTimeMillis());
+        modifications.increment();
     }
 
-    public synchronized void registerRequestFromIp(String ip, LocalDateTime localDateTime) {
-        if (ipRequests.containsKey(ip)) {
-            ipRequests.put(ip, Pair.with(ipRequests.get(ip).getValue0() + 1, localDateTime));
-        } else {
-            ipRequests.put(ip, Pair.with(1L, localDateTime));
-        }
+    public void markModified() {
+        modifications.increment();
     }
 
-    public synchronized void registerRedirect(String destinationUrl) {
-        if (redirects.containsKey(destinationUrl)) {
-            redirects.put(destinationUrl, redirects.get(destinationUrl) + 1);
-        } else {
-            redirects.put(destinationUrl, 1L);
-        }
+    public long getModificationCount() {
+        return modifications.sum();
     }
 
-    public static String getIpFromChannel(Channel channel) {
-        return ((InetSocketAddress) channel.remoteAddress()).getAddress().getHostAddress().replaceFirst("^/", "");
+    /* Reads every table once. Modification count is read first, so a snapshot is never newer than its count claims. */
+    public StatisticsSnapshot snapshot() {
+        long modificationCount = getModificationCount();
+        return new StatisticsSnapshot(modificationCount, getNumberOfRequests(), getNumberOfUniqueRequests(),
+                getConnectionCount(), getIpRequestsAsStrings(), getRedirectsAsStrings(), getConnectionsAsStrings());
     }
 
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss.SSS dd.MM.yyyy");
+
     public static String getFormattedDateTime(LocalDateTime ldt) {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss.SSS dd.MM.yyyy");
-        return ldt.format(formatter);
+        return ldt.format(DATE_TIME_FORMATTER);
+    }
+
+    public static String getFormattedDateTime(long epochMillis) {
+        return getFormattedDateTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()));
     }
 
     public List<List<String>> getIpRequestsAsStrings() {
         List<List<String>> list = new ArrayList<>();
-        ipRequests.forEach((ip, info) -> {
-            List<String> s = Arrays.asList(ip, info.getValue0().toString(), getFormattedDateTime(info.getValue1()));
+        ipRequests.forEach((ip, count, lastRequest) -> {
+            List<String> s = Arrays.asList(ip, Long.toString(count), getFormattedDateTime(lastRequest));
             list.add(s);
         });
         return list;
@@ -77,8 +129,8 @@ public class HttpServerStatistics implements Serializable {
 
     public List<List<String>> getRedirectsAsStrings() {
         List<List<String>> list = new ArrayList<>();
-        redirects.forEach((url, count) -> {
-            List<String> s = Arrays.asList(url, count.toString());
+        redirects.forEach((url, count, lastRequest) -> {
+            List<String> s = Arrays.asList(url, Long.toString(count));
             list.add(s);
         });
         return list;
@@ -86,18 +138,19 @@ public class HttpServerStatistics implements Serializable {
 
     public List<List<String>> getConnectionsAsStrings() {
         List<List<String>> list = new ArrayList<>();
-        connections.forEach((ci) -> {
+        connections.snapshot().forEach((ci) -> {
             List<String> s = new ArrayList<>();
-            s.add(ci.getIp());
+            s.add(ci.getStreamId() == 0 ? ci.getIp() : ci.getIp() + " (stream " + ci.getStreamId() + ")");
             s.add(ci.getUrisAsString());
             s.add(getFormattedDateTime(ci.getEstablished()));
-            if (ci.getClosed() != null) {
+            if (ci.isClosed()) {
                 s.add(getFormattedDateTime(ci.getClosed()));
-                s.add("" + ci.getBytesSent());
-                s.add("" + ci.getBytesReceived());
+                s.add(Long.toString(ci.getBytesSent()));
+                s.add(Long.toString(ci.getBytesReceived()));
                 s.add(String.format("%.3f", ci.getSpeed()));
+                s.add(ci.getOutcome() == null ? "closed" : ci.getOutcome().getLabel());
             } else {
-                s.add("–"); s.add("–"); s.add("–"); s.add("–");
+                s.add("–"); s.add("–"); s.add("–"); s.add("–"); s.add("open");
             }
             list.add(s);
         });
@@ -105,36 +158,25 @@ public class HttpServerStatistics implements Serializable {
     }
 
     public long getNumberOfUniqueRequests() {
-        return ipRequests.size();
+        return ipRequests.getNumberOfKeys();
     }
 
     public void addChannel(Channel c) {
         channels.add(c);
+        modifications.increment();
     }
 
     public int getConnectionCount() {
         return channels.size();
     }
 
-    public synchronized void addConnectionInfo(ConnectionInfo ci) {
-        /* Store no more than 16 entries */
-        if (connections.size() == 16) {
-            connections.remove(0);
-        }
+    public void addConnectionInfo(ConnectionInfo ci) {
         connections.add(ci);
+        modifications.increment();
     }
 
     public List<ConnectionInfo> getConnections() {
-        return connections;
-    }
-
-    public void serialize() {
-        try (FileOutputStream fileOut = new FileOutputStream("statistics.ser");
-             ObjectOutputStream out = new ObjectOutputStream(fileOut)) {
-            out.writeObject(this);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return connections.snapshot();
     }
 
     @Override
@@ -0,0 +1,48 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/* Estimates the number of distinct keys in 2^precision registers. Relative error is about 1.04 / sqrt(2^precision). */
+public class HyperLogLog {
+    private final int precision;
+    private final AtomicIntegerArray registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        registers = new AtomicIntegerArray(1 << precision);
+    }
+
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        /* Position of the first set bit in the remaining bits; the sentinel bit bounds it. */
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        int current;
+        while ((current = registers.get(index)) < rank) {
+            if (registers.compareAndSet(index, current, rank)) {
+                break;
+            }
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length();
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            int r = registers.get(i);
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                ++zeros;
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros != 0) {
+            estimate = m * Math.log((double) m / zeros); // linear counting is more precise for small cardinalities
+        }
+        return Math.round(estimate);
+    }
+}
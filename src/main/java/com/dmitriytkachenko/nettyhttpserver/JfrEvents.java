@@ -0,0 +1,102 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/* Custom Java Flight Recorder events of the server, recorded while a flight recording is running
+(for example, started with -XX:StartFlightRecording or jcmd JFR.start). On a JVM without JFR nothing is emitted.
+*/
+final class JfrEvents {
+    private static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents() { }
+
+    static void loopSample(int loop, long pendingTasks, long queueLatencyNanos) {
+        if (AVAILABLE) {
+            LoopSample event = new LoopSample();
+            event.loop = loop;
+            event.pendingTasks = pendingTasks;
+            event.queueLatency = queueLatencyNanos;
+            event.commit();
+        }
+    }
+
+    static void loopStall(int loop, String thread, long blockedNanos, String stackTrace) {
+        if (AVAILABLE) {
+            LoopStall event = new LoopStall();
+            event.loop = loop;
+            event.thread = thread;
+            event.blocked = blockedNanos;
+            event.loopStackTrace = stackTrace;
+            event.commit();
+        }
+    }
+
+    static void slowHandler(String route, long durationNanos) {
+        if (AVAILABLE) {
+            SlowHandler event = new SlowHandler();
+            event.route = route;
+            event.handlerTime = durationNanos;
+            event.commit();
+        }
+    }
+
+    private static boolean isAvailable() {
+        try {
+            return Class.forName("jdk.jfr.FlightRecorder") != null && FlightRecorder.isAvailable();
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    @Name("nettyhttpserver.LoopSample")
+    @Label("Event Loop Sample")
+    @Category("Netty HTTP Server")
+    @Description("Tasks waiting in a worker event loop and how long the latest probe task waited to run")
+    @StackTrace(false)
+    static class LoopSample extends Event {
+        @Label("Loop")
+        int loop;
+        @Label("Pending Tasks")
+        long pendingTasks;
+        @Label("Queue Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueLatency;
+    }
+
+    @Name("nettyhttpserver.LoopStall")
+    @Label("Event Loop Stall")
+    @Category("Netty HTTP Server")
+    @Description("Worker event loop which has not run a probe task for longer than the stall threshold")
+    @StackTrace(false)
+    static class LoopStall extends Event {
+        @Label("Loop")
+        int loop;
+        @Label("Thread")
+        String thread;
+        @Label("Blocked")
+        @Timespan(Timespan.NANOSECONDS)
+        long blocked;
+        @Label("Stack Trace of the Loop")
+        String loopStackTrace; // stackTrace is the name of a field every event has
+    }
+
+    @Name("nettyhttpserver.SlowHandler")
+    @Label("Slow Route Handler")
+    @Category("Netty HTTP Server")
+    @Description("Route handler which held its event loop for longer than the slow handler threshold")
+    @StackTrace(false)
+    static class SlowHandler extends Event {
+        @Label("Route")
+        String route;
+        @Label("Handler Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long handlerTime;
+    }
+}
@@ -0,0 +1,81 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Histogram of latencies in microseconds with log-linear buckets, as in HdrHistogram: every power of two
+is split into 16 linear sub-buckets, so any value is counted with a relative error below 1/16
+(values below 16 are exact). Values up to 2^37 microseconds (38 hours) are counted, larger ones in the last bucket.
+Recording is one atomic increment and does not allocate.
+*/
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 37;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumMicros = new LongAdder();
+
+    public void record(long micros) {
+        counts.incrementAndGet(bucket(Math.max(micros, 0)));
+        sumMicros.add(micros);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /* Largest value which is counted in the bucket. */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /* Copy of the bucket counts; concurrent recordings may or may not be included. */
+    public long[] getCounts() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public long getSumMicros() {
+        return sumMicros.sum();
+    }
+
+    /* Number of values below the limit, which has to be a power of two. */
+    static long countBelow(long[] counts, long powerOfTwo) {
+        long total = 0;
+        for (int i = 0, end = bucket(powerOfTwo); i < end; i++) {
+            total += counts[i];
+        }
+        return total;
+    }
+
+    /* Highest value equivalent to the value at the quantile, 0 if nothing was recorded. */
+    static long valueAtQuantile(long[] counts, long total, double quantile) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,197 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.Brotli;
+import io.netty.handler.codec.compression.BrotliEncoder;
+import io.netty.handler.codec.compression.Zstd;
+import io.netty.handler.codec.compression.ZstdEncoder;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContentEncoder;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+/* Replacement of HttpContentCompressor which asks CompressionPolicy whether to compress each response and at which level.
+Brotli and zstd are offered when their optional native libraries are on the class path and are preferred to gzip
+at equal quality values; the level is used as Brotli quality and zstd level as is. gzip and deflate are compressed
+with PooledDeflateEncoder. Levels of the routes of pipelined requests are queued in request order,
+like accepted encodings in HttpContentEncoder, and are matched with responses in the same order.
+*/
+public class PolicyContentCompressor extends HttpContentEncoder {
+    private static final boolean BROTLI = Brotli.isAvailable();
+    private static final boolean ZSTD = Zstd.isAvailable();
+
+    private final CompressionPolicy policy;
+    private final Queue<Integer> routeLevels = new ArrayDeque<>();
+    private int level;
+    private EventExecutor executor;
+
+    public PolicyContentCompressor(CompressionPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, HttpRequest msg, List<Object> out) throws Exception {
+        routeLevels.add(policy.levelFor(msg.uri()));
+        super.decode(ctx, msg, out);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, HttpObject msg, List<Object> out) throws Exception {
+        /* HttpContentEncoder takes the accepted encoding of the next request for every response except 100 Continue. */
+        if (msg instanceof HttpResponse && ((HttpResponse) msg).status().code() != 100) {
+            Integer routeLevel = routeLevels.poll();
+            level = routeLevel == null ? 0 : routeLevel;
+            executor = ctx.executor();
+        }
+        super.encode(ctx, msg, out);
+    }
+
+    /* Called for every response with a body to a request with Accept-Encoding. Whether or not the response ends up
+    compressed, it depends on that header, so caches are told to key on it. */
+    @Override
+    protected Result beginEncode(HttpResponse response, String acceptEncoding) throws Exception {
+        if (response.headers().contains(HttpHeaderNames.CONTENT_ENCODING)) {
+            return null;
+        }
+        if (!response.headers().containsValue(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING, true)) {
+            response.headers().add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        }
+        if (level == 0) {
+            return null;
+        }
+        String encoding = preferredEncoding(acceptEncoding);
+        if (encoding == null) {
+            return null;
+        }
+        long contentLength = response instanceof FullHttpResponse ? ((FullHttpResponse) response).content().readableBytes()
+                : HttpUtil.getContentLength(response, -1L);
+        if (!policy.isCompressible(response.headers().get(HttpHeaderNames.CONTENT_TYPE), contentLength)) {
+            return null;
+        }
+        int effectiveLevel = policy.isLoadAware()
+                ? policy.adjustForLoad(level, EventLoopMonitor.getInstance().getQueueLatencyNanos(executor)) : level;
+        if (effectiveLevel == 0) {
+            return null;
+        }
+        return new Result(encoding, new EmbeddedChannel(encoder(encoding, effectiveLevel)));
+    }
+
+    private static ChannelHandler encoder(String encoding, int level) {
+        if (HttpHeaderValues.BR.contentEquals(encoding)) {
+            return new BrotliEncoder(new Encoder.Parameters().setQuality(level));
+        }
+        if (HttpHeaderValues.ZSTD.contentEquals(encoding)) {
+            return new ZstdEncoder(level);
+        }
+        return new PooledDeflateEncoder(HttpHeaderValues.GZIP.contentEquals(encoding), level);
+    }
+
+    static String preferredEncoding(String acceptEncoding) {
+        return preferredEncoding(acceptEncoding, BROTLI, ZSTD);
+    }
+
+    /* Codings are preferred in the order br, zstd, gzip, deflate at equal quality values;
+    "*" stands for the codings which are not listed. */
+    static String preferredEncoding(String acceptEncoding, boolean brotli, boolean zstd) {
+        float any = quality(acceptEncoding, "*");
+        String preferred = null;
+        float best = 0;
+        if (brotli) {
+            float q = orElse(quality(acceptEncoding, "br"), any);
+            if (q > best) {
+                preferred = HttpHeaderValues.BR.toString();
+                best = q;
+            }
+        }
+        if (zstd) {
+            float q = orElse(quality(acceptEncoding, "zstd"), any);
+            if (q > best) {
+                preferred = HttpHeaderValues.ZSTD.toString();
+                best = q;
+            }
+        }
+        float gzip = orElse(Math.max(quality(acceptEncoding, "gzip"), quality(acceptEncoding, "x-gzip")), any);
+        if (gzip > best) {
+            preferred = HttpHeaderValues.GZIP.toString();
+            best = gzip;
+        }
+        if (orElse(quality(acceptEncoding, "deflate"), any) > best) {
+            preferred = HttpHeaderValues.DEFLATE.toString();
+        }
+        return preferred;
+    }
+
+    private static float orElse(float quality, float any) {
+        return quality < 0 ? any : quality;
+    }
+
+    /* Quality value of the coding in an Accept-Encoding value, or -1 if it is not listed.
+    Scanned in place, as the header comes with every request. */
+    static float quality(String acceptEncoding, String coding) {
+        int length = acceptEncoding.length();
+        int start = 0;
+        while (start < length) {
+            int end = acceptEncoding.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            int semicolon = acceptEncoding.indexOf(';', start);
+            int nameEnd = semicolon >= 0 && semicolon < end ? semicolon : end;
+            int nameStart = start;
+            while (nameStart < nameEnd && isSpace(acceptEncoding.charAt(nameStart))) {
+                nameStart++;
+            }
+            int trimmedEnd = nameEnd;
+            while (trimmedEnd > nameStart && isSpace(acceptEncoding.charAt(trimmedEnd - 1))) {
+                trimmedEnd--;
+            }
+            if (trimmedEnd - nameStart == coding.length() && acceptEncoding.regionMatches(true, nameStart, coding, 0, coding.length())) {
+                return nameEnd == end ? 1 : parseQuality(acceptEncoding, nameEnd + 1, end);
+            }
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    /* Parses "q=" followed by a quality value in [from, to); anything malformed counts as 0. */
+    private static float parseQuality(String s, int from, int to) {
+        int eq = s.indexOf('=', from);
+        if (eq < 0 || eq >= to) {
+            return 1;
+        }
+        int i = eq + 1;
+        while (i < to && isSpace(s.charAt(i))) {
+            i++;
+        }
+        if (i == to || s.charAt(i) != '0' && s.charAt(i) != '1') {
+            return 0;
+        }
+        float q = s.charAt(i++) - '0';
+        if (i < to && s.charAt(i) == '.') {
+            float scale = 0.1f;
+            for (i++; i < to && s.charAt(i) >= '0' && s.charAt(i) <= '9'; i++, scale /= 10) {
+                q += (s.charAt(i) - '0') * scale;
+            }
+        }
+        while (i < to && isSpace(s.charAt(i))) {
+            i++;
+        }
+        return i == to ? Math.min(q, 1) : 0;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t';
+    }
+}
@@ -0,0 +1,149 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.util.ArrayDeque;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/* Gzip or zlib encoder like Netty's JdkZlibEncoder, except that deflaters are taken from a per-thread pool
+and returned to it when the stream is finished, instead of allocating a new deflater (and its native memory)
+for every response. The stream is finished when the encoder's channel is closed.
+*/
+public class PooledDeflateEncoder extends MessageToByteEncoder<ByteBuf> {
+    private static final int MAX_POOLED_PER_THREAD = 8;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final ThreadLocal<Pool> POOL = ThreadLocal.withInitial(Pool::new);
+
+    private final boolean gzip;
+    private final CRC32 crc;
+    private Deflater deflater;
+    private boolean headerWritten;
+
+    public PooledDeflateEncoder(boolean gzip, int level) {
+        this.gzip = gzip;
+        crc = gzip ? new CRC32() : null;
+        deflater = POOL.get().borrow(gzip, level);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) throws Exception {
+        int length = in.readableBytes();
+        if (length == 0) {
+            return;
+        }
+        writeHeader(out);
+        byte[] input;
+        int offset;
+        if (in.hasArray()) {
+            input = in.array();
+            offset = in.arrayOffset() + in.readerIndex();
+        } else {
+            input = POOL.get().scratch(length); // the deflater consumes all of it below, so it can be reused
+            offset = 0;
+            in.getBytes(in.readerIndex(), input, 0, length);
+        }
+        if (gzip) {
+            crc.update(input, offset, length);
+        }
+        in.skipBytes(length);
+        deflater.setInput(input, offset, length);
+        /* The flush is complete once the deflater leaves free space in the output. */
+        boolean filled;
+        do {
+            filled = deflate(out, Deflater.SYNC_FLUSH);
+        } while (filled);
+    }
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, ByteBuf msg, boolean preferDirect) throws Exception {
+        /* Deflate does not expand data by more than 0.1% plus a few bytes. */
+        int estimate = (int) Math.ceil(msg.readableBytes() * 1.001) + 12 + (headerWritten ? 0 : GZIP_HEADER.length);
+        return ctx.alloc().heapBuffer(estimate);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        if (deflater != null) {
+            ByteBuf footer = ctx.alloc().heapBuffer();
+            writeHeader(footer);
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(footer, Deflater.NO_FLUSH);
+            }
+            if (gzip) {
+                writeIntLE(footer, (int) crc.getValue());
+                writeIntLE(footer, (int) deflater.getBytesRead());
+            }
+            POOL.get().recycle(gzip, deflater);
+            deflater = null;
+            ctx.writeAndFlush(footer);
+        }
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (deflater != null) {
+            deflater.end(); // unfinished stream, the deflater cannot be reused
+            deflater = null;
+        }
+        super.handlerRemoved(ctx);
+    }
+
+    private void writeHeader(ByteBuf out) {
+        if (gzip && !headerWritten) {
+            out.writeBytes(GZIP_HEADER);
+        }
+        headerWritten = true;
+    }
+
+    /* Returns true if the output space was filled up. */
+    private boolean deflate(ByteBuf out, int flush) {
+        out.ensureWritable(256);
+        int writable = out.writableBytes();
+        int written = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), writable, flush);
+        out.writerIndex(out.writerIndex() + written);
+        return written == writable;
+    }
+
+    private static void writeIntLE(ByteBuf out, int value) {
+        out.writeByte(value).writeByte(value >>> 8).writeByte(value >>> 16).writeByte(value >>> 24);
+    }
+
+    /* Deflaters of gzip streams have no zlib wrapper (nowrap), so they are pooled apart from zlib ones. */
+    private static final class Pool {
+        private final ArrayDeque<Deflater> gzipDeflaters = new ArrayDeque<>();
+        private final ArrayDeque<Deflater> zlibDeflaters = new ArrayDeque<>();
+        private byte[] scratch = new byte[0];
+
+        Deflater borrow(boolean gzip, int level) {
+            Deflater deflater = (gzip ? gzipDeflaters : zlibDeflaters).pollFirst();
+            if (deflater == null) {
+                return new Deflater(level, gzip);
+            }
+            deflater.setLevel(level);
+            return deflater;
+        }
+
+        void recycle(boolean gzip, Deflater deflater) {
+            ArrayDeque<Deflater> deflaters = gzip ? gzipDeflaters : zlibDeflaters;
+            if (deflaters.size() < MAX_POOLED_PER_THREAD) {
+                deflater.reset();
+                deflaters.addFirst(deflater);
+            } else {
+                deflater.end();
+            }
+        }
+
+        byte[] scratch(int length) {
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, 2 * scratch.length)];
+            }
+            return scratch;
+        }
+    }
+}
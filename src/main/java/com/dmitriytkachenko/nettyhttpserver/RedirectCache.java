@@ -0,0 +1,79 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/* 302 responses of recently requested destinations, encoded once, so that a redirect to a hot destination
+is a single write of shared bytes. Every thread keeps its own LRU map of the requests it serves,
+like PooledDeflateEncoder keeps its pool, so lookups take no locks; capacity is per thread (0 disables caching).
+*/
+public class RedirectCache {
+    private static final RedirectCache INSTANCE = new RedirectCache();
+    /* Longer destinations are not cached, so memory held by a map is bounded by its capacity. */
+    static final int MAX_CACHED_URL_LENGTH = 2048;
+
+    private final ThreadLocal<Map<String, EncodedResponse.Template>> caches = ThreadLocal.withInitial(this::newCache);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile int capacity = 1024;
+
+    private RedirectCache() { }
+
+    public static RedirectCache getInstance() {
+        return INSTANCE;
+    }
+
+    /* Applies to maps which threads create afterwards, so it is set before the server starts. */
+    public void configure(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public FullHttpResponse newRedirect(String destinationUrl) {
+        if (capacity <= 0 || destinationUrl.length() > MAX_CACHED_URL_LENGTH) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.FOUND);
+            response.headers().set(locationHeaders(destinationUrl)).set(HttpHeaderNames.CONTENT_LENGTH, 0);
+            return response;
+        }
+        Map<String, EncodedResponse.Template> cache = caches.get();
+        EncodedResponse.Template template = cache.get(destinationUrl);
+        if (template == null) {
+            misses.increment();
+            template = new EncodedResponse.Template(HttpResponseStatus.FOUND, locationHeaders(destinationUrl));
+            cache.put(destinationUrl, template);
+        } else {
+            hits.increment();
+        }
+        return template.newResponse();
+    }
+
+    private static HttpHeaders locationHeaders(String destinationUrl) {
+        return new DefaultHttpHeaders().set(HttpHeaderNames.LOCATION, "http://" + destinationUrl);
+    }
+
+    private Map<String, EncodedResponse.Template> newCache() {
+        int maxSize = capacity;
+        return new LinkedHashMap<String, EncodedResponse.Template>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EncodedResponse.Template> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+}
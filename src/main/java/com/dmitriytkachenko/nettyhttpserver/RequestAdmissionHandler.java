@@ -0,0 +1,61 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+/* Applies the per-IP request rate limit of AdmissionController. It sits right behind the HTTP codec,
+so requests over the limit are dropped before any handler works on them.
+A rejected client gets 429 Too Many Requests and the connection is closed. Responses to requests admitted
+before are written first (the handler counts the last parts of responses), so pipelined responses stay in order.
+*/
+public class RequestAdmissionHandler extends ChannelDuplexHandler {
+    private final AdmissionController admission = AdmissionController.getInstance();
+    private int unanswered; // admitted requests whose responses have not been written yet
+    private boolean rejecting;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (rejecting) {
+            ReferenceCountUtil.release(msg); // rest of the rejected request and anything after it
+            return;
+        }
+        if (!(msg instanceof HttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        if (!admission.admitRequest(ctx.channel().remoteAddress())) {
+            ReferenceCountUtil.release(msg);
+            rejecting = true;
+            ctx.channel().config().setAutoRead(false);
+            if (unanswered == 0) {
+                reject(ctx);
+            }
+            return;
+        }
+        unanswered++;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        boolean last = msg instanceof LastHttpContent
+                && !(msg instanceof HttpResponse && ((HttpResponse) msg).status().code() == 100);
+        ctx.write(msg, promise);
+        if (last && --unanswered == 0 && rejecting) {
+            reject(ctx);
+        }
+    }
+
+    private void reject(ChannelHandlerContext ctx) {
+        ConnectionReaper.getInstance().closing(ctx.channel().attr(TrafficAccountingHandler.CONNECTION_INFO).get(),
+                ConnectionOutcome.RATE_LIMITED);
+        ctx.writeAndFlush(ResponseCache.getInstance().getTooManyRequests().newResponse())
+                .addListener(ChannelFutureListener.CLOSE);
+    }
+}
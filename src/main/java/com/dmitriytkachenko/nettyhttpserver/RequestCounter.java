@@ -0,0 +1,65 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Counter of requests for one key (IP or redirect destination).
+Increments are striped across cells by LongAdder, so worker threads registering requests concurrently
+do not contend on one memory location. Registering a request allocates nothing.
+*/
+public class RequestCounter {
+    private final LongAdder count = new LongAdder();
+
+    /* Epoch milliseconds of the latest registered request. */
+    private final AtomicLong lastRequest = new AtomicLong();
+
+    /* Persistence state: the changed flag is set by request threads, the rest belongs to the journal thread. */
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private long persistedCount;
+    private long persistedLastRequest;
+
+    public void register(long timestamp) {
+        count.increment();
+        /* Requests can be registered out of order by different threads, so keep the maximum. */
+        lastRequest.accumulateAndGet(timestamp, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getLastRequest() {
+        return lastRequest.get();
+    }
+
+    public void restore(long count, long timestamp) {
+        this.count.add(count);
+        lastRequest.accumulateAndGet(timestamp, Math::max);
+        persistedCount += count;
+        persistedLastRequest = Math.max(persistedLastRequest, timestamp);
+    }
+
+    /* Returns true only for the call which changed the flag, so the key is queued for persistence once. */
+    boolean markChanged() {
+        return !changed.get() && changed.compareAndSet(false, true);
+    }
+
+    /* Clears the changed flag before the count is read: an increment which is missed here marks the counter again. */
+    long persist() {
+        changed.set(false);
+        long current = getCount();
+        long delta = current - persistedCount;
+        persistedCount = current;
+        persistedLastRequest = getLastRequest();
+        return delta;
+    }
+
+    long getPersistedCount() {
+        return persistedCount;
+    }
+
+    long getPersistedLastRequest() {
+        return persistedLastRequest;
+    }
+}
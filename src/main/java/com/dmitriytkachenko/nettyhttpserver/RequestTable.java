@@ -0,0 +1,30 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+/* Requests counted per key (client IP or redirect destination). */
+public interface RequestTable {
+    /* Timestamp is in epoch milliseconds. */
+    void register(String key, long timestamp);
+
+    /* Number of distinct keys seen so far (may be an estimate). */
+    long getNumberOfKeys();
+
+    /* Visits tracked keys. Tables which do not keep every key visit only the most frequent ones. */
+    void forEach(EntryVisitor visitor);
+
+    /* Persistence support for StatisticsJournal. Changes are only recorded after trackChanges is called.
+    The other methods are called from the journal thread only. */
+    void trackChanges();
+
+    /* Visits keys changed since the previous call with the count added since then, and marks that state persisted. */
+    void drainChanges(EntryVisitor visitor);
+
+    /* Visits the persisted state of every key, that is everything handed out by drainChanges so far. */
+    void forEachPersisted(EntryVisitor visitor);
+
+    /* Adds a recovered count to the key. Recovered state counts as persisted. */
+    void restore(String key, long count, long lastRequest);
+
+    interface EntryVisitor {
+        void visit(String key, long count, long lastRequest);
+    }
+}
@@ -0,0 +1,88 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+/* Responses which do not depend on statistics are rendered once at startup. */
+public class ResponseCache {
+    private static final ResponseCache INSTANCE = new ResponseCache();
+    private static final String HTML = "text/html; charset=utf-8";
+    private static final String URI_MARKER = "{uri}";
+
+    private final CachedResponse hello;
+    private final CachedResponse notImplemented;
+    private final CachedResponse serviceUnavailable;
+    private final CachedResponse internalServerError;
+    private final CachedResponse tooManyRequests;
+
+    /* 404 page only differs by the requested URI, which is spliced in between these two parts. */
+    private final ByteBuf notFoundPrefix;
+    private final ByteBuf notFoundSuffix;
+
+    private ResponseCache() {
+        hello = new CachedResponse(HttpResponseStatus.OK, HTML,
+                new HtmlCreator().setTitle("Hello").setH1("Hello World!").getHtml());
+        notImplemented = new CachedResponse(HttpResponseStatus.NOT_IMPLEMENTED, null, Unpooled.EMPTY_BUFFER);
+        serviceUnavailable = new CachedResponse(HttpResponseStatus.SERVICE_UNAVAILABLE, null, Unpooled.EMPTY_BUFFER);
+        internalServerError = new CachedResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, null, Unpooled.EMPTY_BUFFER);
+        tooManyRequests = new CachedResponse(HttpResponseStatus.TOO_MANY_REQUESTS, null, Unpooled.EMPTY_BUFFER)
+                .setHeader(HttpHeaderNames.RETRY_AFTER, 1)
+                .setHeader(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+
+        ByteBuf notFound = new HtmlCreator().setTitle("Not Found").setH1("404 Not Found")
+                .addParagraph("The requested URL " + URI_MARKER + " was not found on this server.").getHtml();
+        int uriIndex = notFound.toString(CharsetUtil.UTF_8).indexOf(URI_MARKER); // page is ASCII, so chars are bytes
+        int suffixIndex = uriIndex + URI_MARKER.length();
+        notFoundPrefix = CachedResponse.readOnlyDirect(notFound.slice(0, uriIndex));
+        notFoundSuffix = CachedResponse.readOnlyDirect(notFound.slice(suffixIndex, notFound.readableBytes() - suffixIndex));
+        notFound.release();
+    }
+
+    public static ResponseCache getInstance() {
+        return INSTANCE;
+    }
+
+    public CachedResponse getHello() {
+        return hello;
+    }
+
+    public CachedResponse getNotImplemented() {
+        return notImplemented;
+    }
+
+    public CachedResponse getServiceUnavailable() {
+        return serviceUnavailable;
+    }
+
+    /* Sent when a blocking route fails. */
+    public CachedResponse getInternalServerError() {
+        return internalServerError;
+    }
+
+    /* Sent before the connection of a client over its request rate is closed. */
+    public CachedResponse getTooManyRequests() {
+        return tooManyRequests;
+    }
+
+    public FullHttpResponse newNotFound(ByteBufAllocator alloc, String uri) {
+        ByteBuf encodedUri = ByteBufUtil.writeUtf8(alloc, uri);
+        CompositeByteBuf content = alloc.compositeBuffer(3);
+        content.addComponents(notFoundPrefix.duplicate().retain(), encodedUri, notFoundSuffix.duplicate().retain());
+        content.writerIndex(notFoundPrefix.readableBytes() + encodedUri.readableBytes() + notFoundSuffix.readableBytes());
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND, content);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, HTML);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        return response;
+    }
+}
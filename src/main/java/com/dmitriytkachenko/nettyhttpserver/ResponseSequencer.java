@@ -0,0 +1,261 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/* Writes responses to pipelined HTTP/1.1 requests in the order in which the requests arrived.
+Every decoded request takes a sequence number; a response which is ready before the responses to earlier requests
+is held until they are written. Responses written while a read batch is being processed are flushed once,
+when the batch is complete. One instance per channel, only accessed from the channel's event loop.
+At most MAX_OUTSTANDING requests may wait for their responses: at the limit the channel stops reading until responses
+are written, so a client which pipelines requests without reading responses cannot make the server hold unlimited
+responses. Decoded requests of the last read wait in the FlowControlHandler in front of the channel's handler meanwhile.
+Latency of every response, from the decoding of its request until it is flushed, is recorded in the metrics of its route,
+and the response is written to the access log.
+*/
+public class ResponseSequencer {
+    private static final int INITIAL_CAPACITY = 4;
+    static final int MAX_OUTSTANDING = 64;
+
+    private long nextRequest = 0;
+    private long nextResponse = 0;
+    /* Responses before this one have been flushed and recorded in metrics. */
+    private long nextRecorded = 0;
+    /* Requests which have not been recorded yet, indexed by sequence modulo capacity:
+    when they were decoded, their route and the status of their response once it is written. */
+    private long[] decoded = new long[INITIAL_CAPACITY];
+    private RouteMetrics[] routes = new RouteMetrics[INITIAL_CAPACITY];
+    private int[] statuses = new int[INITIAL_CAPACITY];
+    private long[] bodyBytes = new long[INITIAL_CAPACITY];
+    private final Map<Long, HeldResponse> held = new HashMap<>();
+    private boolean reading = false;
+    private boolean flushNeeded = false;
+    private boolean closing = false;
+    /* Reasons of the handler to stop reading, e.g. blocking routes in progress. */
+    private int readSuspensions = 0;
+    /* Reading was turned off by this sequencer. Writes are flushed right away then, as the read batch is cut short
+    and its read complete event only comes once reading resumes. */
+    private boolean readSuspended = false;
+    private Runnable resume;
+    private final ConnectionInfo ci;
+    private final AccessLog accessLog = AccessLog.getInstance();
+    /* Client address in the form of access log records, taken when the first response is written. */
+    private byte[] clientAddress;
+
+    /* Access log records of the channel's responses carry the connection id of its ConnectionInfo. */
+    public ResponseSequencer(ConnectionInfo ci) {
+        this.ci = ci;
+    }
+
+    public long nextSequence(ChannelHandlerContext ctx) {
+        if (nextRequest - nextRecorded == decoded.length) {
+            grow();
+        }
+        int i = index(nextRequest);
+        decoded[i] = System.nanoTime();
+        routes[i] = null;
+        long sequence = nextRequest++;
+        if (nextRequest - nextResponse == MAX_OUTSTANDING) {
+            updateReading(ctx);
+        }
+        return sequence;
+    }
+
+    /* Every suspension must be followed by resumeReading. */
+    public void suspendReading(ChannelHandlerContext ctx) {
+        readSuspensions++;
+        updateReading(ctx);
+    }
+
+    public void resumeReading(ChannelHandlerContext ctx) {
+        readSuspensions--;
+        updateReading(ctx);
+    }
+
+    /* Reading is turned off right away, but turned on from a task of its own: turning it on delivers queued requests
+    at once, which must not happen while the handler is still processing a request. */
+    private void updateReading(ChannelHandlerContext ctx) {
+        boolean suspend = readSuspensions > 0 || nextRequest - nextResponse >= MAX_OUTSTANDING;
+        if (suspend && !readSuspended) {
+            readSuspended = true;
+            ctx.channel().config().setAutoRead(false);
+        } else if (!suspend && readSuspended && !closing) {
+            if (resume == null) {
+                resume = () -> {
+                    if (readSuspended && readSuspensions == 0 && nextRequest - nextResponse < MAX_OUTSTANDING && !closing) {
+                        readSuspended = false;
+                        ctx.channel().config().setAutoRead(true);
+                    }
+                };
+            }
+            ctx.executor().execute(resume);
+        }
+    }
+
+    /* Metrics which the response to the request is recorded in; responses of requests without a route are not recorded. */
+    public void setRoute(long sequence, RouteMetrics metrics) {
+        routes[index(sequence)] = metrics;
+    }
+
+    public void readStarted() {
+        reading = true;
+    }
+
+    public void readComplete(ChannelHandlerContext ctx) {
+        reading = false;
+        flush(ctx);
+    }
+
+    public void complete(ChannelHandlerContext ctx, long sequence, FullHttpResponse response, boolean keepAlive) {
+        complete(ctx, sequence, response, null, keepAlive);
+    }
+
+    /* Response whose body is streamed: the body (ChunkedInput of HTTP contents) is written right after the headers
+    and is read by ChunkedWriteHandler as the channel becomes writable; later responses are queued behind it. */
+    public void complete(ChannelHandlerContext ctx, long sequence, HttpResponse response, ChunkedInput<?> body, boolean keepAlive) {
+        if (closing) {
+            discard(response, body); // connection is closed after an earlier response
+            return;
+        }
+        if (sequence != nextResponse) {
+            held.put(sequence, new HeldResponse(response, body, keepAlive));
+            return;
+        }
+        write(ctx, response, body, keepAlive);
+        HeldResponse next;
+        while (!closing && (next = held.remove(nextResponse)) != null) {
+            write(ctx, next.response, next.body, next.keepAlive);
+        }
+        if (!reading || readSuspended) {
+            flush(ctx);
+        }
+        if (readSuspended) {
+            updateReading(ctx);
+        }
+    }
+
+    /* Releases held responses when the channel is closed; responses completed later are released right away. */
+    public void release() {
+        closing = true;
+        held.values().forEach((h) -> discard(h.response, h.body));
+        held.clear();
+    }
+
+    private static void discard(HttpResponse response, ChunkedInput<?> body) {
+        ReferenceCountUtil.release(response);
+        if (body != null) {
+            try {
+                body.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void write(ChannelHandlerContext ctx, HttpResponse response, ChunkedInput<?> body, boolean keepAlive) {
+        int i = index(nextResponse++);
+        statuses[i] = response.status().code();
+        if (clientAddress == null && accessLog.isEnabled()) {
+            clientAddress = AccessLog.address(ctx.channel().remoteAddress());
+        }
+        // An HTTP/2 stream ends with its response; closing the stream channel would reset the stream.
+        keepAlive |= ctx.channel() instanceof Http2StreamChannel;
+        if (keepAlive) {
+            // Add 'Content-Length' header only for a keep-alive connection; streamed bodies are chunked instead.
+            if (response instanceof FullHttpResponse && !response.headers().contains(HttpHeaderNames.CONTENT_LENGTH)) {
+                response.headers().set(HttpHeaderNames.CONTENT_LENGTH, ((FullHttpResponse) response).content().readableBytes());
+            }
+            // Add keep alive header as per:
+            // - http://www.w3.org/Protocols/HTTP/1.1/draft-ietf-http-v11-spec-01.html#Connection
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        }
+
+        // Write the response.
+        bodyBytes[i] = response instanceof FullHttpResponse ? ((FullHttpResponse) response).content().readableBytes() : -1;
+        ctx.write(response);
+        if (body != null) {
+            ctx.write(body);
+        }
+        flushNeeded = true;
+
+        if (!keepAlive) {
+            // If keep-alive is off, close the connection once the content is fully written.
+            closing = true;
+            flushNeeded = false;
+            ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+            recordFlushed();
+            release();
+        }
+    }
+
+    private void flush(ChannelHandlerContext ctx) {
+        if (flushNeeded) {
+            flushNeeded = false;
+            ctx.flush();
+            recordFlushed();
+        }
+    }
+
+    private void recordFlushed() {
+        long now = System.nanoTime();
+        long time = clientAddress != null ? System.currentTimeMillis() : 0;
+        for (; nextRecorded < nextResponse; nextRecorded++) {
+            int i = index(nextRecorded);
+            if (routes[i] != null) {
+                routes[i].record(statuses[i], now - decoded[i]);
+                if (clientAddress != null) {
+                    accessLog.log(time, ci.getConnectionId(), bodyBytes[i], now - decoded[i], statuses[i], routes[i].getId(),
+                            clientAddress);
+                }
+                routes[i] = null;
+            }
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) sequence & (decoded.length - 1);
+    }
+
+    /* Capacity stays a power of two, entries keep their sequences. */
+    private void grow() {
+        long[] oldDecoded = decoded;
+        RouteMetrics[] oldRoutes = routes;
+        int[] oldStatuses = statuses;
+        long[] oldBodyBytes = bodyBytes;
+        decoded = new long[oldDecoded.length * 2];
+        routes = new RouteMetrics[decoded.length];
+        statuses = new int[decoded.length];
+        bodyBytes = new long[decoded.length];
+        for (long sequence = nextRecorded; sequence < nextRequest; sequence++) {
+            int from = (int) sequence & (oldDecoded.length - 1);
+            int to = index(sequence);
+            decoded[to] = oldDecoded[from];
+            routes[to] = oldRoutes[from];
+            statuses[to] = oldStatuses[from];
+            bodyBytes[to] = oldBodyBytes[from];
+        }
+    }
+
+    private static final class HeldResponse {
+        private final HttpResponse response;
+        private final ChunkedInput<?> body;
+        private final boolean keepAlive;
+
+        private HeldResponse(HttpResponse response, ChunkedInput<?> body, boolean keepAlive) {
+            this.response = response;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+    }
+}
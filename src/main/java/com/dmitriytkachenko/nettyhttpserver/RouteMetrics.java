@@ -0,0 +1,64 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Responses of one route: their number by status code and their latency from the moment the request was decoded
+until the response was flushed, and the time the route's handler held its event loop. Recording is lock-free and does not allocate.
+*/
+public class RouteMetrics {
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    private final int id;
+    private final String route;
+    private final AtomicLongArray statuses = new AtomicLongArray(MAX_STATUS - MIN_STATUS + 1);
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram handlerTime = new LatencyHistogram();
+
+    /* Ids number routes in the order they are registered, so records of the access log can refer to them by id. */
+    public RouteMetrics(int id, String route) {
+        this.id = id;
+        this.route = route;
+    }
+
+    public void record(int status, long latencyNanos) {
+        if (status >= MIN_STATUS && status <= MAX_STATUS) {
+            statuses.incrementAndGet(status - MIN_STATUS);
+        }
+        latency.record(latencyNanos / 1000);
+    }
+
+    public void recordHandlerTime(long nanos) {
+        handlerTime.record(nanos / 1000);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    /* Calls the visitor for every status code which has been responded with. */
+    public void forEachStatus(StatusVisitor visitor) {
+        for (int i = 0; i < statuses.length(); i++) {
+            long count = statuses.get(i);
+            if (count > 0) {
+                visitor.visit(i + MIN_STATUS, count);
+            }
+        }
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram getHandlerTime() {
+        return handlerTime;
+    }
+
+    public interface StatusVisitor {
+        void visit(int status, long count);
+    }
+}
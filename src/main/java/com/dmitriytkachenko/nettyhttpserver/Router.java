@@ -0,0 +1,192 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/* Maps request URIs to routes. Routes are registered up front and compiled into a trie over path segments.
+Every trie node keeps its children in an open-addressed hash table, so matching one segment costs one hash
+over the characters of the URI plus one comparison, no matter how many routes there are.
+Matching works on the URI string in place: it does not allocate and does not decode the query string.
+Trailing slash is ignored, so /hello and /hello/ are the same path.
+*/
+public final class Router<T> {
+    private final Node<T> root;
+    private final Set<HttpMethod> methods;
+    private final Route<T> notFound;
+    private final Route<T> notImplemented;
+
+    private Router(Builder<T> builder) {
+        root = builder.root.compile();
+        methods = builder.methods;
+        notFound = builder.notFound;
+        notImplemented = builder.notImplemented;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    public interface Route<T> {
+        void handle(T target, ChannelHandlerContext ctx);
+    }
+
+    /* Returns notImplemented route for methods which no route is registered for, notFound route if nothing matches. */
+    public Route<T> match(HttpMethod method, String uri) {
+        if (!methods.contains(method)) {
+            return notImplemented;
+        }
+        int queryStart = uri.indexOf('?');
+        int pathEnd = queryStart < 0 ? uri.length() : queryStart;
+        boolean hasQuery = queryStart >= 0 && queryStart + 1 < uri.length();
+
+        Node<T> node = root;
+        int start = uri.startsWith("/") ? 1 : 0;
+        while (start < pathEnd) {
+            int end = uri.indexOf('/', start);
+            if (end < 0 || end > pathEnd) {
+                end = pathEnd;
+            }
+            node = node.child(uri, start, end);
+            if (node == null) {
+                return notFound;
+            }
+            start = end + 1;
+        }
+
+        MethodRoute<T> route = node.routes.get(method);
+        if (route == null || node == root || (hasQuery && !route.queryAllowed)) {
+            return notFound;
+        }
+        return route.route;
+    }
+
+    /* Whether some registered route, notFound and notImplemented included, satisfies the predicate. */
+    public boolean hasRouteMatching(Predicate<Route<T>> predicate) {
+        return predicate.test(notFound) || predicate.test(notImplemented) || root.hasRouteMatching(predicate);
+    }
+
+    public static final class Builder<T> {
+        private final Node<T> root = new Node<>();
+        private final Set<HttpMethod> methods = new HashSet<>();
+        private Route<T> notFound;
+        private Route<T> notImplemented;
+
+        private Builder() { }
+
+        /* Routes which do not allow a query string are not matched by URIs which have one. */
+        public Builder<T> add(HttpMethod method, String path, boolean queryAllowed, Route<T> route) {
+            Node<T> node = root;
+            for (String segment : path.split("/")) {
+                if (!segment.isEmpty()) {
+                    node = node.builderChildren.computeIfAbsent(segment, s -> new Node<>());
+                }
+            }
+            if (node.routes.put(method, new MethodRoute<>(route, queryAllowed)) != null) {
+                throw new IllegalArgumentException("Duplicate route: " + method + " " + path);
+            }
+            methods.add(method);
+            return this;
+        }
+
+        public Builder<T> get(String path, boolean queryAllowed, Route<T> route) {
+            return add(HttpMethod.GET, path, queryAllowed, route);
+        }
+
+        public Builder<T> notFound(Route<T> route) {
+            notFound = route;
+            return this;
+        }
+
+        public Builder<T> notImplemented(Route<T> route) {
+            notImplemented = route;
+            return this;
+        }
+
+        public Router<T> build() {
+            if (notFound == null || notImplemented == null) {
+                throw new IllegalStateException("notFound and notImplemented routes are required");
+            }
+            return new Router<>(this);
+        }
+    }
+
+    private static final class MethodRoute<T> {
+        private final Route<T> route;
+        private final boolean queryAllowed;
+
+        private MethodRoute(Route<T> route, boolean queryAllowed) {
+            this.route = route;
+            this.queryAllowed = queryAllowed;
+        }
+    }
+
+    private static final class Node<T> {
+        private final Map<HttpMethod, MethodRoute<T>> routes = new HashMap<>();
+        private Map<String, Node<T>> builderChildren = new HashMap<>();
+
+        /* Open-addressed table of children, at most half full. */
+        private String[] segments;
+        private Node<T>[] children;
+        private int mask;
+
+        private Node<T> compile() {
+            int capacity = Integer.highestOneBit(Math.max(1, builderChildren.size()) * 2 - 1) << 1;
+            segments = new String[capacity];
+            @SuppressWarnings("unchecked")
+            Node<T>[] nodes = (Node<T>[]) new Node<?>[capacity];
+            children = nodes;
+            mask = capacity - 1;
+            builderChildren.forEach((segment, child) -> {
+                int i = segment.hashCode() & mask;
+                while (segments[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                segments[i] = segment;
+                children[i] = child.compile();
+            });
+            builderChildren = null;
+            return this;
+        }
+
+        private boolean hasRouteMatching(Predicate<Route<T>> predicate) {
+            for (MethodRoute<T> route : routes.values()) {
+                if (predicate.test(route.route)) {
+                    return true;
+                }
+            }
+            for (Node<T> child : children) {
+                if (child != null && child.hasRouteMatching(predicate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Node<T> child(String uri, int start, int end) {
+            int i = hash(uri, start, end) & mask;
+            String segment;
+            while ((segment = segments[i]) != null) {
+                if (segment.length() == end - start && uri.regionMatches(start, segment, 0, end - start)) {
+                    return children[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        /* Same as String.hashCode of the substring. */
+        private static int hash(String s, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h;
+        }
+    }
+}
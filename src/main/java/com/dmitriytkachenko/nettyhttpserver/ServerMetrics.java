@@ -0,0 +1,269 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/* Metrics served at /metrics in OpenMetrics text format, for Prometheus and compatible scrapers.
+Request metrics are recorded per route as responses are flushed; gauges are read when the page is rendered.
+The page is written straight into the buffer it is sent from.
+*/
+public class ServerMetrics {
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    /* Histogram buckets are exported at powers of two from 128 microseconds to 32 seconds. */
+    private static final int FIRST_BUCKET_EXPONENT = 7;
+    private static final int LAST_BUCKET_EXPONENT = 25;
+    private static final String[] BUCKET_LABELS = new String[LAST_BUCKET_EXPONENT - FIRST_BUCKET_EXPONENT + 1];
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    static {
+        for (int i = 0; i < BUCKET_LABELS.length; i++) {
+            BUCKET_LABELS[i] = BigDecimal.valueOf(1L << (FIRST_BUCKET_EXPONENT + i)).movePointLeft(6).toPlainString();
+        }
+    }
+
+    private final HttpServerStatistics statistics = HttpServerStatistics.getInstance();
+    private final List<RouteMetrics> routes = new CopyOnWriteArrayList<>();
+    private volatile EventExecutorGroup eventLoops;
+    private volatile ByteBufAllocator allocator;
+
+    private ServerMetrics() { }
+
+    public static ServerMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /* Returns metrics of the route, which are created when the route is registered for the first time. */
+    public synchronized RouteMetrics route(String name) {
+        for (RouteMetrics metrics : routes) {
+            if (metrics.getRoute().equals(name)) {
+                return metrics;
+            }
+        }
+        RouteMetrics metrics = new RouteMetrics(routes.size(), name);
+        routes.add(metrics);
+        return metrics;
+    }
+
+    /* Registered routes in the order of their ids. */
+    public List<RouteMetrics> getRoutes() {
+        return Collections.unmodifiableList(routes);
+    }
+
+    /* Worker loops whose pending tasks are exported. */
+    public void setEventLoops(EventExecutorGroup eventLoops) {
+        this.eventLoops = eventLoops;
+    }
+
+    /* Allocator of client channels, whose memory is exported. */
+    public void setAllocator(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    public void render(ByteBuf out) {
+        family(out, "http_requests", "counter", "Responses by route and status code.");
+        for (RouteMetrics route : routes) {
+            route.forEachStatus((status, count) -> {
+                write(out, "http_requests_total{route=\"", route.getRoute(), "\",status=\"");
+                ByteBufUtil.writeAscii(out, Integer.toString(status));
+                sample(out, "\"} ", count);
+            });
+        }
+
+        family(out, "http_request_duration_seconds", "histogram", "Time from request decoding to response flush.");
+        int routeCount = routes.size();
+        long[][] latencies = new long[routeCount][];
+        long[] totals = new long[routeCount];
+        for (int r = 0; r < routeCount; r++) {
+            RouteMetrics route = routes.get(r);
+            latencies[r] = route.getLatency().getCounts();
+            totals[r] = histogram(out, "http_request_duration_seconds", "{route=\"" + route.getRoute() + "\"",
+                    latencies[r], route.getLatency().getSumMicros());
+        }
+
+        family(out, "http_handler_duration_seconds", "histogram", "Time route handlers hold their event loop.");
+        for (RouteMetrics route : routes) {
+            histogram(out, "http_handler_duration_seconds", "{route=\"" + route.getRoute() + "\"",
+                    route.getHandlerTime().getCounts(), route.getHandlerTime().getSumMicros());
+        }
+
+        family(out, "http_request_latency_seconds", "summary", "Latency quantiles with the precision of histogram buckets.");
+        for (int r = 0; r < routeCount; r++) {
+            for (double quantile : QUANTILES) {
+                write(out, "http_request_latency_seconds{route=\"", routes.get(r).getRoute(), "\",quantile=\"");
+                ByteBufUtil.writeUtf8(out, Double.toString(quantile));
+                ByteBufUtil.writeUtf8(out, "\"} ");
+                writeSeconds(out, LatencyHistogram.valueAtQuantile(latencies[r], totals[r], quantile));
+                out.writeByte('\n');
+            }
+        }
+
+        TrafficAccountingHandler traffic = TrafficAccountingHandler.getInstance();
+        family(out, "http_received_bytes", "counter", "Bytes received from clients.");
+        sample(out, "http_received_bytes_total ", traffic.getBytesReceived());
+        family(out, "http_sent_bytes", "counter", "Bytes sent to clients.");
+        sample(out, "http_sent_bytes_total ", traffic.getBytesSent());
+
+        family(out, "http_open_connections", "gauge", "Open client connections.");
+        sample(out, "http_open_connections ", statistics.getConnectionCount());
+        AdmissionController admission = AdmissionController.getInstance();
+        family(out, "http_refused_connections", "counter", "Connections closed by admission control.");
+        sample(out, "http_refused_connections_total ", admission.getRefusedConnections());
+        family(out, "http_rate_limited_requests", "counter", "Requests answered with 429 Too Many Requests.");
+        sample(out, "http_rate_limited_requests_total ", admission.getRejectedRequests());
+        ConnectionReaper reaper = ConnectionReaper.getInstance();
+        family(out, "http_closed_connections", "counter", "Connections closed by the server, by reason.");
+        for (ConnectionOutcome outcome : ConnectionOutcome.values()) {
+            write(out, "http_closed_connections_total{reason=\"", outcome.getLabel(), "\"} ");
+            sample(out, "", reaper.getClosed(outcome));
+        }
+
+        RedirectCache redirectCache = RedirectCache.getInstance();
+        family(out, "http_redirect_cache_hits", "counter", "Redirects served from encoded responses.");
+        sample(out, "http_redirect_cache_hits_total ", redirectCache.getHits());
+        family(out, "http_redirect_cache_misses", "counter", "Redirects whose response had to be encoded and cached.");
+        sample(out, "http_redirect_cache_misses_total ", redirectCache.getMisses());
+
+        AccessLog accessLog = AccessLog.getInstance();
+        if (accessLog.isEnabled()) {
+            family(out, "access_log_records", "counter", "Records written to the access log.");
+            sample(out, "access_log_records_total ", accessLog.getWritten());
+            family(out, "access_log_dropped_records", "counter", "Access log records dropped because the writer fell behind.");
+            sample(out, "access_log_dropped_records_total ", accessLog.getDropped());
+        }
+
+        family(out, "deferred_responses_pending", "gauge", "Delayed responses waiting in the timer.");
+        sample(out, "deferred_responses_pending ", DeferredResponseScheduler.getInstance().getPendingResponses());
+
+        EventExecutorGroup loops = eventLoops;
+        if (loops != null) {
+            family(out, "event_loop_pending_tasks", "gauge", "Tasks waiting in the queue of each worker event loop.");
+            int index = 0;
+            for (Iterator<EventExecutor> it = loops.iterator(); it.hasNext(); index++) {
+                EventExecutor loop = it.next();
+                if (loop instanceof SingleThreadEventExecutor) {
+                    ByteBufUtil.writeUtf8(out, "event_loop_pending_tasks{loop=\"");
+                    ByteBufUtil.writeAscii(out, Integer.toString(index));
+                    sample(out, "\"} ", ((SingleThreadEventExecutor) loop).pendingTasks());
+                }
+            }
+            EventLoopMonitor monitor = EventLoopMonitor.getInstance();
+            family(out, "event_loop_queue_latency_seconds", "histogram", "Time probe tasks waited in the queue of each worker event loop.");
+            index = 0;
+            for (Iterator<EventExecutor> it = loops.iterator(); it.hasNext(); index++) {
+                LatencyHistogram queueLatencies = monitor.getQueueLatencies(it.next());
+                if (queueLatencies != null) {
+                    histogram(out, "event_loop_queue_latency_seconds", "{loop=\"" + index + "\"",
+                            queueLatencies.getCounts(), queueLatencies.getSumMicros());
+                }
+            }
+            family(out, "event_loop_stalls", "counter", "Stalls of each worker event loop over the stall threshold.");
+            index = 0;
+            for (Iterator<EventExecutor> it = loops.iterator(); it.hasNext(); index++) {
+                ByteBufUtil.writeUtf8(out, "event_loop_stalls_total{loop=\"");
+                ByteBufUtil.writeAscii(out, Integer.toString(index));
+                sample(out, "\"} ", monitor.getStalls(it.next()));
+            }
+        }
+
+        ByteBufAllocator allocator = this.allocator;
+        if (allocator instanceof ByteBufAllocatorMetricProvider) {
+            ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) allocator).metric();
+            family(out, "netty_allocator_used_memory_bytes", "gauge",
+                    "Memory held by the buffer allocator of client channels, including chunks pooled for reuse.");
+            sample(out, "netty_allocator_used_memory_bytes{type=\"direct\"} ", metric.usedDirectMemory());
+            sample(out, "netty_allocator_used_memory_bytes{type=\"heap\"} ", metric.usedHeapMemory());
+            if (metric instanceof PooledByteBufAllocatorMetric) {
+                PooledByteBufAllocatorMetric pooled = (PooledByteBufAllocatorMetric) metric;
+                family(out, "netty_allocator_arenas", "gauge", "Arenas of the pooled allocator.");
+                sample(out, "netty_allocator_arenas{type=\"direct\"} ", pooled.numDirectArenas());
+                sample(out, "netty_allocator_arenas{type=\"heap\"} ", pooled.numHeapArenas());
+                family(out, "netty_allocator_thread_local_caches", "gauge", "Thread-local caches of the pooled allocator.");
+                sample(out, "netty_allocator_thread_local_caches ", pooled.numThreadLocalCaches());
+                family(out, "netty_allocator_chunk_size_bytes", "gauge", "Size of the chunks arenas allocate.");
+                sample(out, "netty_allocator_chunk_size_bytes ", pooled.chunkSize());
+            }
+        }
+
+        /* Direct memory of the whole JVM, which also holds buffers allocated outside the channels' allocator,
+        such as bodies of cached responses. */
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                family(out, "jvm_direct_buffers_used_bytes", "gauge", "Direct memory used by NIO buffers.");
+                sample(out, "jvm_direct_buffers_used_bytes ", pool.getMemoryUsed());
+                family(out, "jvm_direct_buffers", "gauge", "Number of direct NIO buffers.");
+                sample(out, "jvm_direct_buffers ", pool.getCount());
+            }
+        }
+        ByteBufUtil.writeUtf8(out, "# EOF\n");
+    }
+
+    /* Buckets, count and sum of one histogram series; labels are the opening brace and the labels other than le.
+    Returns the count. */
+    private static long histogram(ByteBuf out, String name, String labels, long[] counts, long sumMicros) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        for (int i = 0; i < BUCKET_LABELS.length; i++) {
+            write(out, name, "_bucket", labels);
+            write(out, ",le=\"", BUCKET_LABELS[i], "\"} ");
+            sample(out, "", LatencyHistogram.countBelow(counts, 1L << (FIRST_BUCKET_EXPONENT + i)));
+        }
+        write(out, name, "_bucket", labels);
+        sample(out, ",le=\"+Inf\"} ", total);
+        write(out, name, "_count", labels);
+        sample(out, "} ", total);
+        write(out, name, "_sum", labels);
+        ByteBufUtil.writeUtf8(out, "} ");
+        writeSeconds(out, sumMicros);
+        out.writeByte('\n');
+        return total;
+    }
+
+    private static void family(ByteBuf out, String name, String type, String help) {
+        write(out, "# TYPE ", name, " ");
+        ByteBufUtil.writeUtf8(out, type);
+        write(out, "\n# HELP ", name, " ");
+        ByteBufUtil.writeUtf8(out, help);
+        out.writeByte('\n');
+    }
+
+    private static void write(ByteBuf out, String prefix, String name, String suffix) {
+        ByteBufUtil.writeUtf8(out, prefix);
+        ByteBufUtil.writeUtf8(out, name);
+        ByteBufUtil.writeUtf8(out, suffix);
+    }
+
+    private static void sample(ByteBuf out, String prefix, long value) {
+        ByteBufUtil.writeUtf8(out, prefix);
+        ByteBufUtil.writeAscii(out, Long.toString(value));
+        out.writeByte('\n');
+    }
+
+    private static void writeSeconds(ByteBuf out, long micros) {
+        ByteBufUtil.writeAscii(out, Long.toString(micros / 1000000));
+        out.writeByte('.');
+        long fraction = micros % 1000000;
+        for (long digit = 100000; digit > 1 && fraction < digit; digit /= 10) {
+            out.writeByte('0');
+        }
+        ByteBufUtil.writeAscii(out, Long.toString(fraction));
+    }
+}
@@ -0,0 +1,219 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/* Persists request statistics so that counters survive restarts.
+A background thread periodically collects counters changed since the previous batch and appends their deltas
+to a write-ahead log as one checksummed batch. When the log grows past a threshold, the persisted state is compacted
+into a snapshot file (written through a memory mapping and renamed into place) and the log is truncated.
+On startup the snapshot is restored and the log batches newer than it are replayed; a torn batch at the end of
+the log (crash during a write) is discarded. Request threads never touch the disk.
+
+Log batch: int payload length, long sequence, long CRC32 of payload, then records.
+Snapshot: long magic, long sequence of the last batch it includes, int record count, then records.
+Record: byte table, short key length, UTF-8 key, long count (delta in the log), long last request (epoch ms).
+The connection log is not persisted.
+*/
+public class StatisticsJournal {
+    private static final long SNAPSHOT_MAGIC = 0x4e48535354415431L; // "NHSSTAT1"
+    private static final int BATCH_HEADER = 4 + 8 + 8;
+    private static final int SNAPSHOT_HEADER = 8 + 8 + 4;
+    private static final byte IP_REQUESTS = 1;
+    private static final byte REDIRECTS = 2;
+
+    private final HttpServerStatistics statistics = HttpServerStatistics.getInstance();
+    private final Path logFile;
+    private final Path snapshotFile;
+    private final long compactionThreshold;
+
+    private ScheduledExecutorService writer;
+    private FileChannel log;
+    private long lastSequence = 0;
+    private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+
+    public StatisticsJournal(Path directory, long compactionThreshold) {
+        logFile = directory.resolve("statistics.wal");
+        snapshotFile = directory.resolve("statistics.snapshot");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /* Has to be called before the server starts accepting connections. */
+    public void start(long flushIntervalMillis) throws IOException {
+        Files.createDirectories(logFile.getParent());
+        recover();
+        statistics.getIpRequests().trackChanges();
+        statistics.getRedirects().trackChanges();
+        writer = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("statistics-journal", true));
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /* Writes the last batch and closes the log. */
+    public void stop() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+            flush();
+            log.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            e.printStackTrace(); // keep the writer running, changes are written with the next batch
+        }
+    }
+
+    private void flush() throws IOException {
+        batch.clear();
+        batch.position(BATCH_HEADER);
+        statistics.getIpRequests().drainChanges((key, delta, lastRequest) -> appendRecord(IP_REQUESTS, key, delta, lastRequest));
+        statistics.getRedirects().drainChanges((key, delta, lastRequest) -> appendRecord(REDIRECTS, key, delta, lastRequest));
+        if (batch.position() == BATCH_HEADER) {
+            return;
+        }
+        int length = batch.position() - BATCH_HEADER;
+        CRC32 crc = new CRC32();
+        crc.update(batch.array(), BATCH_HEADER, length);
+        batch.putInt(0, length).putLong(4, ++lastSequence).putLong(12, crc.getValue());
+        batch.flip();
+        while (batch.hasRemaining()) {
+            log.write(batch);
+        }
+        log.force(false);
+
+        if (log.size() > compactionThreshold) {
+            compact();
+        }
+    }
+
+    private void appendRecord(byte table, String key, long count, long lastRequest) {
+        byte[] keyBytes = key.getBytes(CharsetUtil.UTF_8);
+        int size = 1 + 2 + keyBytes.length + 8 + 8;
+        if (batch.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + size));
+            batch.flip();
+            larger.put(batch);
+            batch = larger;
+        }
+        batch.put(table).putShort((short) keyBytes.length).put(keyBytes).putLong(count).putLong(lastRequest);
+    }
+
+    /* Snapshot contains the persisted state only, which is exactly what the log batches up to lastSequence add up to. */
+    private void compact() throws IOException {
+        long[] size = {SNAPSHOT_HEADER};
+        int[] records = {0};
+        RequestTable.EntryVisitor measure = (key, count, lastRequest) -> {
+            size[0] += 1 + 2 + key.getBytes(CharsetUtil.UTF_8).length + 8 + 8;
+            ++records[0];
+        };
+        statistics.getIpRequests().forEachPersisted(measure);
+        statistics.getRedirects().forEachPersisted(measure);
+
+        Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size[0]);
+            map.putLong(SNAPSHOT_MAGIC).putLong(lastSequence).putInt(records[0]);
+            statistics.getIpRequests().forEachPersisted((key, count, lastRequest) -> putRecord(map, IP_REQUESTS, key, count, lastRequest));
+            statistics.getRedirects().forEachPersisted((key, count, lastRequest) -> putRecord(map, REDIRECTS, key, count, lastRequest));
+            map.force();
+        }
+        Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        /* Batches up to lastSequence are in the snapshot now; if the process dies before truncation they are skipped on replay. */
+        log.truncate(0);
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte table, String key, long count, long lastRequest) {
+        byte[] keyBytes = key.getBytes(CharsetUtil.UTF_8);
+        buffer.put(table).putShort((short) keyBytes.length).put(keyBytes).putLong(count).putLong(lastRequest);
+    }
+
+    private void recover() throws IOException {
+        long snapshotSequence = 0;
+        if (Files.exists(snapshotFile)) {
+            try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (map.remaining() >= SNAPSHOT_HEADER && map.getLong() == SNAPSHOT_MAGIC) {
+                    snapshotSequence = map.getLong();
+                    int records = map.getInt();
+                    for (int i = 0; i < records; i++) {
+                        restoreRecord(map);
+                    }
+                }
+            }
+        }
+        lastSequence = snapshotSequence;
+
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER);
+        long position = 0;
+        while (true) {
+            header.clear();
+            if (log.read(header, position) < BATCH_HEADER) {
+                break;
+            }
+            header.flip();
+            int length = header.getInt();
+            long sequence = header.getLong();
+            long checksum = header.getLong();
+            if (length <= 0 || position + BATCH_HEADER + length > log.size()) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            log.read(payload, position + BATCH_HEADER);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, length);
+            if (crc.getValue() != checksum) {
+                break;
+            }
+            payload.flip();
+            if (sequence > snapshotSequence) {
+                while (payload.hasRemaining()) {
+                    restoreRecord(payload);
+                }
+                lastSequence = Math.max(lastSequence, sequence);
+            }
+            position += BATCH_HEADER + length;
+        }
+        log.truncate(position); // drop a torn batch
+        log.position(position);
+    }
+
+    private void restoreRecord(ByteBuffer buffer) {
+        byte table = buffer.get();
+        byte[] keyBytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(keyBytes);
+        String key = new String(keyBytes, CharsetUtil.UTF_8);
+        long count = buffer.getLong();
+        long lastRequest = buffer.getLong();
+        if (table == IP_REQUESTS) {
+            statistics.restoreRequestsFromIp(key, count, lastRequest);
+        } else if (table == REDIRECTS) {
+            statistics.restoreRedirects(key, count, lastRequest);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import java.util.Collections;
+import java.util.List;
+
+/* Immutable copy of HttpServerStatistics taken at one moment, with table rows already formatted. */
+public final class StatisticsSnapshot {
+    private final long modificationCount;
+    private final long numberOfRequests;
+    private final long numberOfUniqueRequests;
+    private final int connectionCount;
+    private final List<List<String>> ipRequests;
+    private final List<List<String>> redirects;
+    private final List<List<String>> connections;
+
+    public StatisticsSnapshot(long modificationCount, long numberOfRequests, long numberOfUniqueRequests, int connectionCount,
+                              List<List<String>> ipRequests, List<List<String>> redirects, List<List<String>> connections) {
+        this.modificationCount = modificationCount;
+        this.numberOfRequests = numberOfRequests;
+        this.numberOfUniqueRequests = numberOfUniqueRequests;
+        this.connectionCount = connectionCount;
+        this.ipRequests = Collections.unmodifiableList(ipRequests);
+        this.redirects = Collections.unmodifiableList(redirects);
+        this.connections = Collections.unmodifiableList(connections);
+    }
+
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    public long getNumberOfRequests() {
+        return numberOfRequests;
+    }
+
+    public long getNumberOfUniqueRequests() {
+        return numberOfUniqueRequests;
+    }
+
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public List<List<String>> getIpRequests() {
+        return ipRequests;
+    }
+
+    public List<List<String>> getRedirects() {
+        return redirects;
+    }
+
+    public List<List<String>> getConnections() {
+        return connections;
+    }
+}
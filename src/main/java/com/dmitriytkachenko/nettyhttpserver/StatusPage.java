@@ -0,0 +1,195 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/* Source of the /status page. Statistics are snapshotted on a separate thread at a fixed interval,
+and every snapshot is rendered once, together with a gzip variant if the compression policy would compress the page.
+Requests stream the chunks of the latest page, so event loops never walk the statistics tables,
+and any number of pollers cost no rendering or compression.
+*/
+public class StatusPage {
+    static final int CHUNK_SIZE = 8192;
+    static final String CONTENT_TYPE = "text/html; charset=utf-8";
+
+    private static final StatusPage INSTANCE = new StatusPage();
+    private static final List<String> REQUESTS_HEADERS = Arrays.asList("IP", "Requests", "Date and time of last request");
+    private static final List<String> REDIRECTS_HEADERS = Arrays.asList("Destination URL", "Number of redirects");
+    private static final List<String> CONNECTIONS_HEADERS = Arrays.asList("IP", "URIs", "Established", "Closed",
+            "Sent (bytes)", "Received (bytes)", "Speed (bytes/sec)", "Outcome");
+
+    private final HttpServerStatistics statistics = HttpServerStatistics.getInstance();
+    private volatile StatisticsSnapshot snapshot;
+    private volatile Page page;
+    /* Pages are not compressed in advance without a policy. */
+    private volatile CompressionPolicy compressionPolicy;
+    private ScheduledExecutorService refresher;
+
+    private StatusPage() { }
+
+    public static StatusPage getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void start(long refreshIntervalMillis, CompressionPolicy compressionPolicy) {
+        if (refresher == null) {
+            this.compressionPolicy = compressionPolicy;
+            refresher = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("status-page", true));
+            refresher.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /* Takes the snapshot on the calling thread only if the refresher has not taken one yet. */
+    public StatisticsSnapshot getSnapshot() {
+        if (snapshot == null) {
+            refresh();
+        }
+        return snapshot;
+    }
+
+    /* Renders the page on the calling thread only if the refresher has not rendered one yet. */
+    public Page getPage() {
+        Page current = page;
+        if (current == null) {
+            refresh();
+            current = page;
+        }
+        return current;
+    }
+
+    /* Weighted quality values are not taken into account except for explicit refusal (q=0). */
+    static boolean acceptsGzip(HttpRequest request) {
+        String acceptEncoding = request.headers().get(HttpHeaderNames.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        float gzip = PolicyContentCompressor.quality(acceptEncoding, "gzip");
+        return (gzip < 0 ? PolicyContentCompressor.quality(acceptEncoding, "*") : gzip) > 0;
+    }
+
+    synchronized void refresh() {
+        if (snapshot != null && snapshot.getModificationCount() == statistics.getModificationCount()) {
+            return; // nothing changed since the last refresh
+        }
+        StatisticsSnapshot newSnapshot = statistics.snapshot();
+        ByteBuf html = render(newSnapshot);
+        ByteBuf gzip = null;
+        CompressionPolicy policy = compressionPolicy;
+        if (policy != null) {
+            int level = policy.levelFor("/status");
+            if (level > 0 && policy.isCompressible(CONTENT_TYPE, html.readableBytes())) {
+                gzip = gzip(html, level);
+            }
+        }
+        page = new Page(chunks(html), gzip == null ? null : chunks(gzip));
+        snapshot = newSnapshot;
+    }
+
+    static ByteBuf render(StatisticsSnapshot snapshot) {
+        HtmlCreator htmlCreator = new HtmlCreator();
+        htmlCreator.setTitle("Statistics");
+        htmlCreator.setH1("Statistics");
+        htmlCreator.openParagraph().addBold("Total requests: ").addNumber(snapshot.getNumberOfRequests()).closeParagraph();
+        htmlCreator.openParagraph().addBold("Unique requests: ").addNumber(snapshot.getNumberOfUniqueRequests()).closeParagraph();
+        htmlCreator.openParagraph().addBold("Open connections: ").addNumber(snapshot.getConnectionCount()).closeParagraph();
+
+        htmlCreator.addHorizontalLine();
+        htmlCreator.addH2("Requests");
+        addTable(htmlCreator, snapshot.getIpRequests(), REQUESTS_HEADERS, "No completed requests.");
+
+        htmlCreator.addHorizontalLine();
+        htmlCreator.addH2("Redirects");
+        addTable(htmlCreator, snapshot.getRedirects(), REDIRECTS_HEADERS, "No redirects.");
+
+        htmlCreator.addHorizontalLine();
+        htmlCreator.addH2("Connections");
+        htmlCreator.addTableWithHeaders(CONNECTIONS_HEADERS);
+        snapshot.getConnections().forEach(htmlCreator::addRowToTable);
+        htmlCreator.endTable();
+
+        htmlCreator.openStyle().centerHeadings().styleTables().closeStyle();
+        return htmlCreator.getHtml();
+    }
+
+    private static void addTable(HtmlCreator htmlCreator, List<List<String>> rows, List<String> headers, String emptyText) {
+        if (rows.isEmpty()) {
+            htmlCreator.addParagraph(emptyText);
+        } else {
+            htmlCreator.addTableWithHeaders(headers);
+            rows.forEach(htmlCreator::addRowToTable);
+            htmlCreator.endTable();
+        }
+    }
+
+    /* Compresses readable bytes of the content, which stays owned by the caller. */
+    private static ByteBuf gzip(ByteBuf content, int level) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(level);
+            }
+        }) {
+            content.getBytes(content.readerIndex(), out, content.readableBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory streams do not fail
+        }
+        return Unpooled.wrappedBuffer(bytes.toByteArray());
+    }
+
+    /* Moves the content into read-only slices of CHUNK_SIZE bytes. Their memory is a direct ByteBuffer which is freed
+    by GC once the page is replaced and its last response is written, as responses may outlive the page. */
+    private static List<ByteBuf> chunks(ByteBuf content) {
+        int length = content.readableBytes();
+        ByteBuffer memory = ByteBuffer.allocateDirect(length);
+        content.getBytes(content.readerIndex(), memory);
+        content.release();
+        memory.flip();
+        ByteBuf page = Unpooled.wrappedBuffer(memory).asReadOnly();
+        List<ByteBuf> chunks = new ArrayList<>((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+            chunks.add(page.slice(offset, Math.min(CHUNK_SIZE, length - offset)));
+        }
+        return Collections.unmodifiableList(chunks);
+    }
+
+    /* Page rendered from one snapshot. */
+    public static final class Page {
+        private final List<ByteBuf> chunks;
+        private final List<ByteBuf> gzipChunks;
+
+        private Page(List<ByteBuf> chunks, List<ByteBuf> gzipChunks) {
+            this.chunks = chunks;
+            this.gzipChunks = gzipChunks;
+        }
+
+        public boolean hasGzip() {
+            return gzipChunks != null;
+        }
+
+        public StatusPageInput newInput(boolean gzip) {
+            return new StatusPageInput(gzip && gzipChunks != null ? gzipChunks : chunks);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+import java.util.List;
+
+/* /status page streamed from the chunks rendered by StatusPage, as ChunkedWriteHandler asks for them,
+which it does only while the channel is writable. Every chunk is a retained duplicate of a shared read-only buffer,
+so requests neither render nor copy the page, and a slow client holds no more than the channel's write buffer.
+*/
+public class StatusPageInput implements ChunkedInput<ByteBuf> {
+    private final List<ByteBuf> chunks;
+    private final long length;
+    private int next;
+    private long progress;
+
+    public StatusPageInput(List<ByteBuf> chunks) {
+        this.chunks = chunks;
+        long length = 0;
+        for (ByteBuf chunk : chunks) {
+            length += chunk.readableBytes();
+        }
+        this.length = length;
+    }
+
+    @Override
+    public boolean isEndOfInput() {
+        return next == chunks.size();
+    }
+
+    @Override
+    public void close() {
+        next = chunks.size();
+    }
+
+    @Override
+    @Deprecated
+    public ByteBuf readChunk(ChannelHandlerContext ctx) {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public ByteBuf readChunk(ByteBufAllocator allocator) {
+        if (isEndOfInput()) {
+            return null;
+        }
+        ByteBuf chunk = chunks.get(next++).retainedDuplicate();
+        progress += chunk.readableBytes();
+        return chunk;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long progress() {
+        return progress;
+    }
+}
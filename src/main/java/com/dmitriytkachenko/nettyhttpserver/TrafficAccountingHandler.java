@@ -0,0 +1,93 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/* Counts bytes received and sent, per connection in its ConnectionInfo and in total for the server.
+One instance is shared by all channels; the only per-channel state is the ConnectionInfo attribute,
+which is set before the channel becomes active. HTTP/2 streams have their own instance, which counts
+the data frames of a stream in its ConnectionInfo only, since the connection has counted their bytes already. Handler methods of a channel run on its event loop,
+so the connection's counters have a single writer; the totals are striped (LongAdder).
+*/
+@ChannelHandler.Sharable
+public class TrafficAccountingHandler extends ChannelDuplexHandler {
+    private static final TrafficAccountingHandler INSTANCE = new TrafficAccountingHandler(true);
+    private static final TrafficAccountingHandler STREAM_INSTANCE = new TrafficAccountingHandler(false);
+    public static final AttributeKey<ConnectionInfo> CONNECTION_INFO = AttributeKey.valueOf("connectionInfo");
+
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final boolean totals;
+
+    private TrafficAccountingHandler(boolean totals) {
+        this.totals = totals;
+    }
+
+    public static TrafficAccountingHandler getInstance() {
+        return INSTANCE;
+    }
+
+    public static TrafficAccountingHandler getStreamInstance() {
+        return STREAM_INSTANCE;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        long size = size(msg);
+        if (size > 0) {
+            if (totals) {
+                bytesReceived.add(size);
+            }
+            ctx.channel().attr(CONNECTION_INFO).get().addBytesReceived(size);
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        long size = size(msg);
+        if (size > 0) {
+            if (totals) {
+                bytesSent.add(size);
+            }
+            ctx.channel().attr(CONNECTION_INFO).get().addBytesSent(size);
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().attr(CONNECTION_INFO).get().setClosed(System.currentTimeMillis());
+        HttpServerStatistics.getInstance().markModified();
+        ctx.fireChannelInactive();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    private static long size(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        }
+        if (msg instanceof FileRegion) {
+            return ((FileRegion) msg).count();
+        }
+        return 0;
+    }
+}
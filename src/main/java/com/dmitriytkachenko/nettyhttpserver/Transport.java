@@ -0,0 +1,49 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/* Event loops and channel classes of the server and of clients which load it, so both run on the same transport:
+native epoll on Linux when it is requested and available, NIO otherwise.
+*/
+public final class Transport {
+    private final boolean epoll;
+
+    private Transport(boolean epoll) {
+        this.epoll = epoll;
+    }
+
+    /* Tells on stderr when epoll is requested but cannot be used. */
+    public static Transport select(boolean epollRequested) {
+        boolean epoll = epollRequested && Epoll.isAvailable();
+        if (epollRequested && !epoll) {
+            System.err.println("Native epoll transport is not available, falling back to NIO: " + Epoll.unavailabilityCause());
+        }
+        return new Transport(epoll);
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /* 0 threads means Netty default (2 * number of cores). */
+    public EventLoopGroup newEventLoopGroup(int threads) {
+        return epoll ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Class<? extends SocketChannel> socketChannelClass() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+}
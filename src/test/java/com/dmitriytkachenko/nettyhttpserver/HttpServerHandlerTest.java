@@ -0,0 +1,142 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/* Blocking routes run on a BlockingExecutor of one thread with a queue of one task, so the third request
+in flight is rejected; /fail throws, and the stack trace it prints is expected. EmbeddedChannel runs tasks handed to its event loop only when asked to. */
+public class HttpServerHandlerTest {
+    private final BlockingExecutor executor = BlockingExecutor.getInstance();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final Set<Thread> routeThreads = ConcurrentHashMap.newKeySet();
+    private final Router<HttpServerHandler> router = Router.<HttpServerHandler>builder()
+            .get("/slow", true, HttpServerHandler.blocking((handler, request) -> {
+                routeThreads.add(Thread.currentThread());
+                release.await();
+                return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                        Unpooled.copiedBuffer(request.uri(), CharsetUtil.UTF_8));
+            }))
+            .get("/fail", false, HttpServerHandler.blocking((handler, request) -> {
+                throw new IllegalStateException("route failed");
+            }))
+            .notFound((handler, ctx) -> { throw new AssertionError("not found"); })
+            .notImplemented((handler, ctx) -> { throw new AssertionError("not implemented"); })
+            .build();
+
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        executor.start(false, 1, 1);
+        ConnectionInfo ci = new ConnectionInfo();
+        ci.setAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)); // set by the initializer on real channels
+        channel = new EmbeddedChannel(new HttpServerHandler(ci, router));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.stop();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void completesBlockingRouteOnEventLoop() throws InterruptedException {
+        channel.writeInbound(get("/slow?a"));
+        assertFalse(channel.config().isAutoRead());
+        assertNull(channel.readOutbound());
+
+        release.countDown();
+        awaitBlockingRoutes();
+        assertNull(channel.readOutbound()); // not written until the event loop runs the completion
+        channel.runPendingTasks();
+
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, response.status());
+        assertEquals("/slow?a", response.content().toString(CharsetUtil.UTF_8));
+        response.release();
+        assertTrue(channel.config().isAutoRead());
+        assertFalse(routeThreads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void answersServiceUnavailableWhenSaturated() throws InterruptedException {
+        channel.writeInbound(get("/slow?a"), get("/slow?b"), get("/slow?c"));
+        assertFalse(channel.config().isAutoRead());
+        assertNull(channel.readOutbound()); // 503 of the third request waits for the responses before it
+
+        release.countDown();
+        awaitBlockingRoutes();
+        channel.runPendingTasks();
+
+        assertResponse(HttpResponseStatus.OK, "/slow?a");
+        assertResponse(HttpResponseStatus.OK, "/slow?b");
+        assertResponse(HttpResponseStatus.SERVICE_UNAVAILABLE, "");
+        assertTrue(channel.config().isAutoRead());
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void answersInternalServerErrorWhenRouteFails() throws InterruptedException {
+        channel.writeInbound(get("/fail"));
+        awaitBlockingRoutes();
+        channel.runPendingTasks();
+
+        assertResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, "");
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void findsBlockingRoutesWrappedInMetrics() {
+        Router<HttpServerHandler> measured = Router.<HttpServerHandler>builder()
+                .get("/slow", false, HttpServerHandler.measured("/slow", HttpServerHandler.blocking((handler, request) -> null)))
+                .notFound((handler, ctx) -> { })
+                .notImplemented((handler, ctx) -> { })
+                .build();
+        assertTrue(HttpServerHandler.hasBlockingRoutes(measured));
+        assertFalse(HttpServerHandler.hasBlockingRoutes()); // routes of the server do not block
+    }
+
+    private static DefaultFullHttpRequest get(String uri) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    /* The executor thread takes tasks in order, so a task submitted after the routes runs once they have
+    handed their completions to the event loop. */
+    private void awaitBlockingRoutes() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        while (!executor.submit(done::countDown)) {
+            Thread.sleep(1);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private void assertResponse(HttpResponseStatus status, String body) {
+        FullHttpResponse response = channel.readOutbound();
+        assertEquals(status, response.status());
+        assertEquals(body, response.content().toString(CharsetUtil.UTF_8));
+        response.release();
+    }
+}
@@ -0,0 +1,119 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/* Pipelined requests to the server's routes on an EmbeddedChannel. Delayed /hello responses are handed to the event loop
+by the timer thread, which is joined by stopping the scheduler before the channel runs the handed tasks. */
+public class ResponseSequencerTest {
+    private static final long HELLO_DELAY_MILLIS = 50;
+
+    private final DeferredResponseScheduler scheduler = DeferredResponseScheduler.getInstance();
+    private final FlushCounter flushes = new FlushCounter();
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp() {
+        HttpServerHandler.setHelloDelayMillis(HELLO_DELAY_MILLIS);
+        scheduler.start(10);
+        ConnectionInfo ci = new ConnectionInfo();
+        ci.setAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)); // set by the initializer on real channels
+        channel = new EmbeddedChannel(new ChunkedWriteHandler(), flushes, new HttpServerHandler(ci));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+        HttpServerHandler.setHelloDelayMillis(TimeUnit.SECONDS.toMillis(10));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void writesResponsesInRequestOrderWithOneFlush() throws InterruptedException {
+        channel.writeInbound(get("/hello"), get("/status"));
+        assertNull(channel.readOutbound()); // /status is ready, but held behind /hello
+        assertEquals(0, flushes.count);
+
+        deliverDelayedResponses();
+
+        HttpResponse hello = channel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, hello.status());
+        ReferenceCountUtil.release(hello);
+        HttpResponse status = channel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, status.status());
+        Object content;
+        while ((content = channel.readOutbound()) instanceof HttpContent) {
+            boolean last = content instanceof LastHttpContent;
+            ReferenceCountUtil.release(content);
+            if (last) {
+                break;
+            }
+        }
+        assertEquals(1, flushes.count);
+    }
+
+    @Test
+    public void stopsReadingAtOutstandingLimit() throws InterruptedException {
+        for (int i = 1; i < ResponseSequencer.MAX_OUTSTANDING; i++) {
+            channel.writeInbound(get("/hello"));
+        }
+        assertTrue(channel.config().isAutoRead());
+        channel.writeInbound(get("/hello"));
+        assertFalse(channel.config().isAutoRead());
+
+        deliverDelayedResponses();
+
+        assertTrue(channel.config().isAutoRead());
+        for (int i = 0; i < ResponseSequencer.MAX_OUTSTANDING; i++) {
+            HttpResponse response = channel.readOutbound();
+            assertEquals(HttpResponseStatus.OK, response.status());
+            ReferenceCountUtil.release(response);
+        }
+        assertNull(channel.readOutbound());
+    }
+
+    private static DefaultFullHttpRequest get(String uri) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    private void deliverDelayedResponses() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.getPendingResponses() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(HELLO_DELAY_MILLIS);
+        }
+        scheduler.stop();
+        channel.runPendingTasks();
+    }
+
+    private static final class FlushCounter extends ChannelOutboundHandlerAdapter {
+        private int count;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            count++;
+            super.flush(ctx);
+        }
+    }
+}
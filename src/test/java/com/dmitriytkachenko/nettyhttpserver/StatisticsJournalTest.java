@@ -0,0 +1,196 @@
+package com.dmitriytkachenko.nettyhttpserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/* Every run of the journal is a server run: statistics are reset and recovered from the files on start,
+and the batch of the run is written on stop. */
+public class StatisticsJournalTest {
+    private static final long NO_COMPACTION = Long.MAX_VALUE;
+    private static final long ALWAYS_COMPACT = 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HttpServerStatistics statistics = HttpServerStatistics.getInstance();
+    private Path directory;
+    private Path log;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+        log = directory.resolve("statistics.wal");
+    }
+
+    @After
+    public void tearDown() {
+        statistics.resetRequests();
+    }
+
+    @Test
+    public void replaysBatchesOfEarlierRuns() throws IOException {
+        StatisticsJournal journal = start(NO_COMPACTION);
+        statistics.registerRequestFromIp("10.0.0.1", 1000);
+        statistics.registerRequestFromIp("10.0.0.1", 3000);
+        statistics.registerRequestFromIp("10.0.0.2", 2000);
+        statistics.registerRedirect("example.com");
+        journal.stop();
+
+        journal = start(NO_COMPACTION);
+        assertEquals(3, statistics.getNumberOfRequests());
+        assertEquals(2, count(statistics.getIpRequests(), "10.0.0.1"));
+        assertEquals(3000, lastRequest(statistics.getIpRequests(), "10.0.0.1"));
+        assertEquals(1, count(statistics.getRedirects(), "example.com"));
+        statistics.registerRequestFromIp("10.0.0.1", 4000);
+        journal.stop();
+
+        start(NO_COMPACTION).stop();
+        assertEquals(4, statistics.getNumberOfRequests());
+        assertEquals(3, count(statistics.getIpRequests(), "10.0.0.1"));
+        assertEquals(4000, lastRequest(statistics.getIpRequests(), "10.0.0.1"));
+    }
+
+    @Test
+    public void discardsTornBatchAtTheEnd() throws IOException {
+        StatisticsJournal journal = start(NO_COMPACTION);
+        statistics.registerRequestFromIp("10.0.0.1", 1000);
+        journal.stop();
+        long intact = Files.size(log);
+
+        // Crash while a batch was being written: its header promises more bytes than made it to the disk.
+        ByteBuffer torn = ByteBuffer.allocate(4 + 8 + 8 + 10);
+        torn.putInt(100).putLong(2).putLong(0);
+        append(torn.array());
+
+        journal = start(NO_COMPACTION);
+        assertEquals(1, count(statistics.getIpRequests(), "10.0.0.1"));
+        assertEquals(intact, Files.size(log));
+        statistics.registerRequestFromIp("10.0.0.1", 2000);
+        journal.stop();
+
+        // Batches written after the recovery are not hidden behind the torn one.
+        start(NO_COMPACTION).stop();
+        assertEquals(2, count(statistics.getIpRequests(), "10.0.0.1"));
+    }
+
+    @Test
+    public void discardsBatchWithWrongChecksum() throws IOException {
+        StatisticsJournal journal = start(NO_COMPACTION);
+        statistics.registerRequestFromIp("10.0.0.1", 1000);
+        journal.stop();
+        long firstBatchEnd = Files.size(log);
+
+        journal = start(NO_COMPACTION);
+        statistics.registerRequestFromIp("10.0.0.2", 2000);
+        journal.stop();
+        assertTrue(Files.size(log) > firstBatchEnd);
+        flipLastByte();
+
+        journal = start(NO_COMPACTION);
+        assertEquals(1, count(statistics.getIpRequests(), "10.0.0.1"));
+        assertEquals(0, count(statistics.getIpRequests(), "10.0.0.2"));
+        assertEquals(1, statistics.getNumberOfRequests());
+        assertEquals(firstBatchEnd, Files.size(log));
+        journal.stop();
+    }
+
+    @Test
+    public void restoresSnapshotAfterCompaction() throws IOException {
+        StatisticsJournal journal = start(ALWAYS_COMPACT);
+        statistics.registerRequestFromIp("10.0.0.1", 1000);
+        statistics.registerRequestFromIp("10.0.0.2", 2000);
+        statistics.registerRedirect("example.com");
+        journal.stop();
+        assertTrue(Files.exists(directory.resolve("statistics.snapshot")));
+        assertEquals(0, Files.size(log));
+
+        journal = start(ALWAYS_COMPACT);
+        assertEquals(2, statistics.getNumberOfRequests());
+        assertEquals(1, count(statistics.getRedirects(), "example.com"));
+        statistics.registerRequestFromIp("10.0.0.1", 3000);
+        journal.stop();
+
+        // Second snapshot holds the restored counts together with the new ones.
+        start(NO_COMPACTION).stop();
+        assertEquals(3, statistics.getNumberOfRequests());
+        assertEquals(2, count(statistics.getIpRequests(), "10.0.0.1"));
+        assertEquals(3000, lastRequest(statistics.getIpRequests(), "10.0.0.1"));
+        assertEquals(1, count(statistics.getIpRequests(), "10.0.0.2"));
+    }
+
+    @Test
+    public void skipsLogBatchesWhichTheSnapshotIncludes() throws IOException {
+        StatisticsJournal journal = start(NO_COMPACTION);
+        statistics.registerRequestFromIp("10.0.0.1", 1000);
+        statistics.registerRequestFromIp("10.0.0.1", 2000);
+        journal.stop();
+        byte[] firstBatch = Files.readAllBytes(log);
+
+        journal = start(ALWAYS_COMPACT);
+        statistics.registerRequestFromIp("10.0.0.1", 3000);
+        journal.stop();
+
+        // Crash after the snapshot was renamed into place but before the log was truncated.
+        append(firstBatch);
+
+        start(NO_COMPACTION).stop();
+        assertEquals(3, count(statistics.getIpRequests(), "10.0.0.1"));
+        assertEquals(3, statistics.getNumberOfRequests());
+    }
+
+    /* Batches are only written when the journal stops. */
+    private StatisticsJournal start(long compactionThreshold) throws IOException {
+        statistics.resetRequests();
+        StatisticsJournal journal = new StatisticsJournal(directory, compactionThreshold);
+        journal.start(TimeUnit.HOURS.toMillis(1));
+        return journal;
+    }
+
+    private void append(byte[] bytes) throws IOException {
+        Files.write(log, bytes, StandardOpenOption.APPEND);
+    }
+
+    private void flipLastByte() throws IOException {
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) ~last.get(0));
+            last.rewind();
+            channel.write(last, channel.size() - 1);
+        }
+    }
+
+    private static long count(RequestTable table, String key) {
+        long[] count = {0};
+        table.forEach((k, c, lastRequest) -> {
+            if (k.equals(key)) {
+                count[0] = c;
+            }
+        });
+        return count[0];
+    }
+
+    private static long lastRequest(RequestTable table, String key) {
+        long[] last = {0};
+        table.forEach((k, c, lastRequest) -> {
+            if (k.equals(key)) {
+                last[0] = lastRequest;
+            }
+        });
+        return last[0];
+    }
+}